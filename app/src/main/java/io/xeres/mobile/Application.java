@@ -23,20 +23,25 @@ import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.util.Log;
 
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.io.File;
+import java.io.InputStream;
 
+import io.xeres.mobile.util.BitmapPool;
+import io.xeres.mobile.util.ChatProcessor;
+import io.xeres.mobile.util.DiskImageCache;
 import io.xeres.mobile.util.ImageCache;
+import io.xeres.mobile.util.RenderCache;
 import io.xeres.mobile.view.AsyncImageView;
 
-public class Application extends android.app.Application implements AsyncImageView.ImageExecutor, AsyncImageView.ImageCache
+public class Application extends android.app.Application implements AsyncImageView.ImageCache, AsyncImageView.DiskCache
 {
 	private static final String TAG = "Application";
 
 	private static Application instance;
 
-	private ExecutorService imageLoaderExecutor;
 	private ImageCache imageCache;
+	private RenderCache renderCache;
+	private DiskImageCache diskImageCache;
 
 	public static Application getInstance()
 	{
@@ -50,7 +55,9 @@ public class Application extends android.app.Application implements AsyncImageVi
 		instance = this;
 
 		imageCache = new ImageCache(ImageCache.calculateSize(this));
-		imageLoaderExecutor = Executors.newFixedThreadPool(4);
+		renderCache = new RenderCache(RenderCache.DEFAULT_SIZE);
+		diskImageCache = new DiskImageCache(new File(getCacheDir(), "images"), DiskImageCache.DEFAULT_SIZE);
+		ChatProcessor.prewarm(this);
 	}
 
 	@Override
@@ -71,7 +78,12 @@ public class Application extends android.app.Application implements AsyncImageVi
 			if (imageCache != null)
 			{
 				Log.d(TAG, "evicting ImageCache (all)");
-				imageCache.evictAll();
+				imageCache.clear();
+			}
+			if (renderCache != null)
+			{
+				Log.d(TAG, "evicting RenderCache (all)");
+				renderCache.evictAll();
 			}
 		}
 		else if (level >= TRIM_MEMORY_BACKGROUND)
@@ -84,14 +96,29 @@ public class Application extends android.app.Application implements AsyncImageVi
 			{
 				Log.d(TAG, "evicting ImageCache (half)");
 				imageCache.evictPartial();
+				imageCache.getBitmapPool().clear();
+			}
+			if (renderCache != null)
+			{
+				Log.d(TAG, "evicting RenderCache (half)");
+				renderCache.evictPartial();
 			}
 		}
 	}
 
-	@Override
-	public ExecutorService getImageExecutor()
+	public RenderCache getRenderCache()
+	{
+		return renderCache;
+	}
+
+	public DiskImageCache getDiskImageCache()
+	{
+		return diskImageCache;
+	}
+
+	public BitmapPool getBitmapPool()
 	{
-		return imageLoaderExecutor;
+		return imageCache.getBitmapPool();
 	}
 
 	@Override
@@ -100,6 +127,24 @@ public class Application extends android.app.Application implements AsyncImageVi
 		return imageCache.getBitmap(url);
 	}
 
+	@Override
+	public Bitmap acquireBitmap(String url)
+	{
+		return imageCache.acquireBitmap(url);
+	}
+
+	@Override
+	public void acquireBitmap(Bitmap bitmap)
+	{
+		imageCache.getBitmapPool().acquire(bitmap);
+	}
+
+	@Override
+	public void releaseBitmap(Bitmap bitmap)
+	{
+		imageCache.getBitmapPool().release(bitmap);
+	}
+
 	@Override
 	public void addBitmap(String url, Bitmap bitmap)
 	{
@@ -115,7 +160,31 @@ public class Application extends android.app.Application implements AsyncImageVi
 	@Override
 	public void evictAll()
 	{
-		imageCache.evictAll();
+		imageCache.clear();
+	}
+
+	@Override
+	public byte[] getImageData(String url)
+	{
+		return diskImageCache.getImageData(url);
+	}
+
+	@Override
+	public boolean isImageDataStale(String url)
+	{
+		return diskImageCache.isStale(url);
+	}
+
+	@Override
+	public void addImageData(String url, byte[] data)
+	{
+		diskImageCache.addImageData(url, data);
+	}
+
+	@Override
+	public void addImageData(String url, InputStream in)
+	{
+		diskImageCache.addImageData(url, in);
 	}
 	// XXX: HTTP not sure... probably not...
 }
@@ -33,6 +33,7 @@ import android.view.View;
 
 import androidx.activity.EdgeToEdge;
 import androidx.annotation.NonNull;
+import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.graphics.Insets;
 import androidx.core.view.ViewCompat;
@@ -49,6 +50,7 @@ import io.xeres.mobile.service.ConnectionService;
 import io.xeres.mobile.service.LocalBinder;
 import io.xeres.mobile.ui.AboutActivity;
 import io.xeres.mobile.ui.SettingsActivity;
+import io.xeres.mobile.view.ImageMetrics;
 
 public class MainActivity extends AppCompatActivity
 {
@@ -164,6 +166,7 @@ public class MainActivity extends AppCompatActivity
 		super.onCreateOptionsMenu(menu);
 
 		getMenuInflater().inflate(R.menu.top_nav_menu, menu);
+		menu.findItem(R.id.image_metrics).setVisible(BuildConfig.DEBUG);
 
 		return true;
 	}
@@ -183,9 +186,25 @@ public class MainActivity extends AppCompatActivity
 			startActivity(intent);
 			return true;
 		}
+		else if (item.getItemId() == R.id.image_metrics)
+		{
+			showImageMetrics();
+			return true;
+		}
 		return super.onOptionsItemSelected(item);
 	}
 
+	private void showImageMetrics()
+	{
+		var application = Application.getInstance();
+		new AlertDialog.Builder(this)
+				.setTitle(R.string.image_metrics)
+				.setMessage(ImageMetrics.getReport(application != null ? application.getBitmapPool() : null))
+				.setPositiveButton(android.R.string.ok, null)
+				.setNeutralButton(R.string.reset, (dialog, which) -> ImageMetrics.reset())
+				.show();
+	}
+
 	@Override
 	protected void onStart()
 	{
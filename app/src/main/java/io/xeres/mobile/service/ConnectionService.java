@@ -22,8 +22,9 @@ package io.xeres.mobile.service;
 import android.app.Service;
 import android.content.Intent;
 import android.content.SharedPreferences;
+import android.os.Handler;
 import android.os.IBinder;
-import android.util.Base64;
+import android.os.Looper;
 import android.util.Log;
 import android.widget.Toast;
 
@@ -33,9 +34,19 @@ import androidx.preference.PreferenceManager;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
+import io.xeres.mobile.Application;
 import io.xeres.mobile.service.auth.BasicAuthInterceptor;
 import io.xeres.mobile.service.json.ChatBacklog;
 import io.xeres.mobile.service.json.ChatMessage;
@@ -47,7 +58,13 @@ import io.xeres.mobile.service.json.Profile;
 import io.xeres.mobile.service.json.RsIdRequest;
 import io.xeres.mobile.service.json.Trust;
 import io.xeres.mobile.service.rest.XeresApi;
+import io.xeres.mobile.service.stomp.MediaSender;
+import io.xeres.mobile.service.stomp.StompConnection;
+import io.xeres.mobile.service.stomp.StompDispatcher;
+import io.xeres.mobile.service.store.MessageStore;
+import io.xeres.mobile.util.Id;
 import io.xeres.mobile.util.JsonUtils;
+import io.xeres.mobile.util.LookupCache;
 import io.xeres.mobile.view.AsyncImageView;
 import okhttp3.OkHttpClient;
 import okhttp3.ResponseBody;
@@ -56,8 +73,6 @@ import retrofit2.Callback;
 import retrofit2.Response;
 import retrofit2.Retrofit;
 import retrofit2.converter.gson.GsonConverterFactory;
-import rx.Observable;
-import ua.naiksoftware.stomp.Stomp;
 import ua.naiksoftware.stomp.StompHeader;
 import ua.naiksoftware.stomp.client.StompClient;
 import ua.naiksoftware.stomp.client.StompCommand;
@@ -67,16 +82,83 @@ public class ConnectionService extends Service implements AsyncImageView.ImageIn
 {
 	private static final String TAG = "ConnectionService";
 
+	public static final String CHAT_PRIVATE_TOPIC = "/topic/chat/private";
+	public static final String CHAT_ROOM_TOPIC = "/topic/chat/room";
+
+	private static final int BACKLOG_PAGE_SIZE = 50;
+
+	private static final String GRACE_PERIOD_KEY = "grace_period";
+	private static final String DEFAULT_GRACE_PERIOD = "30";
+	private static final String STORE_INSTANCE_KEY = "store_instance";
+	private static final Set<String> SESSION_KEYS = Set.of("hostname", "port", "password");
+
+	private static final long PROFILE_TIME_TO_LIVE = 60_000L;
+	private static final long LOCATION_TIME_TO_LIVE = 60_000L;
+	private static final String AVAILABILITY_MESSAGE_TYPE = "CHAT_AVAILABILITY";
+	private static final int MEDIA_MESSAGE_SIZE = 8 * 1024; // Messages bigger than this are sent on their own connection
+
 	private XeresApi xeresApiClient;
 
 	private OkHttpClient okHttpClient;
 
-	private StompClient stompClient;
+	private StompConnection stompConnection;
+
+	private MediaSender mediaSender;
+
+	private final StompDispatcher stompDispatcher = new StompDispatcher();
 
 	private final IBinder binder;
 
 	private Profile ownProfile;
 
+	private int caughtUpMessageCount;
+
+	private MessageStore messageStore;
+
+	private final ExecutorService storeExecutor = Executors.newSingleThreadExecutor();
+
+	private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+	private final Runnable idleRunnable = this::onIdle;
+
+	private String sessionKey;
+
+	private final LookupCache<Profile> profileCache = new LookupCache<>(PROFILE_TIME_TO_LIVE, this::fetchProfileById);
+
+	private final LookupCache<Location> locationCache = new LookupCache<>(LOCATION_TIME_TO_LIVE, this::fetchLocationById);
+
+	// Presence frames name a location by its identifier, those find what to invalidate
+	private final Map<String, Long> locationIdsByIdentifier = new HashMap<>();
+
+	private final Map<Long, Long> profileIdsByLocationId = new HashMap<>();
+
+	private final StompDispatcher.MessageListener presenceListener = new StompDispatcher.MessageListener()
+	{
+		@Override
+		public void onMessage(String messageType, StompMessage stompMessage)
+		{
+			if (AVAILABILITY_MESSAGE_TYPE.equals(messageType))
+			{
+				var locationIdentifier = stompMessage.findHeader("destinationId");
+				mainHandler.post(() -> invalidateLocation(locationIdentifier));
+			}
+		}
+
+		@Override
+		public void onReconnected()
+		{
+			// Presence changes were missed
+			invalidateLookups();
+		}
+	};
+
+	private final SharedPreferences.OnSharedPreferenceChangeListener preferenceChangeListener = (sharedPreferences, key) -> {
+		if (stompConnection != null && SESSION_KEYS.contains(key))
+		{
+			openSessionIfNeeded();
+		}
+	};
+
 	public ConnectionService()
 	{
 		Log.d(TAG, "Creating service...");
@@ -84,7 +166,151 @@ public class ConnectionService extends Service implements AsyncImageView.ImageIn
 		binder = new LocalBinder(this);
 	}
 
-	private void initializeClientsIfNeeded(SharedPreferences prefs)
+	@Override
+	public void onCreate()
+	{
+		super.onCreate();
+		messageStore = new MessageStore(getApplicationContext());
+		PreferenceManager.getDefaultSharedPreferences(getApplicationContext()).registerOnSharedPreferenceChangeListener(preferenceChangeListener);
+		stompDispatcher.addListener(CHAT_PRIVATE_TOPIC, StompDispatcher.ALL_DESTINATIONS, presenceListener);
+	}
+
+	@Override
+	public int onStartCommand(Intent intent, int flags, int startId)
+	{
+		return START_NOT_STICKY;
+	}
+
+	@Override
+	public void onDestroy()
+	{
+		PreferenceManager.getDefaultSharedPreferences(getApplicationContext()).unregisterOnSharedPreferenceChangeListener(preferenceChangeListener);
+		stompDispatcher.removeListener(CHAT_PRIVATE_TOPIC, StompDispatcher.ALL_DESTINATIONS, presenceListener);
+		mainHandler.removeCallbacks(idleRunnable);
+		Log.d(TAG, "Lookups, profiles: " + profileCache.getHits() + " hits, " + profileCache.getMisses() + " misses, locations: " + locationCache.getHits() + " hits, " + locationCache.getMisses() + " misses");
+		closeSession();
+		storeExecutor.execute(() -> messageStore.close());
+		storeExecutor.shutdown();
+		super.onDestroy();
+	}
+
+	@Nullable
+	@Override
+	public IBinder onBind(Intent intent)
+	{
+		onClientBound();
+		return binder;
+	}
+
+	@Override
+	public void onRebind(Intent intent)
+	{
+		onClientBound();
+	}
+
+	@Override
+	public boolean onUnbind(Intent intent)
+	{
+		var prefs = PreferenceManager.getDefaultSharedPreferences(getApplicationContext());
+		var gracePeriod = Long.parseLong(prefs.getString(GRACE_PERIOD_KEY, DEFAULT_GRACE_PERIOD));
+		Log.d(TAG, "No more clients, closing the session in " + gracePeriod + " s");
+		mainHandler.postDelayed(idleRunnable, gracePeriod * 1000L);
+		return true; // So that onRebind() is called
+	}
+
+	private void onClientBound()
+	{
+		mainHandler.removeCallbacks(idleRunnable);
+		// Keeps the service alive during the grace period, when nobody is bound anymore
+		startService(new Intent(this, ConnectionService.class));
+		openSessionIfNeeded();
+	}
+
+	private void onIdle()
+	{
+		Log.d(TAG, "Grace period over, closing the session");
+		closeSession();
+		stopSelf();
+	}
+
+	/**
+	 * Opens the session to the instance, unless there's already one with the same settings.
+	 */
+	private void openSessionIfNeeded()
+	{
+		var prefs = PreferenceManager.getDefaultSharedPreferences(getApplicationContext());
+		var hostname = prefs.getString("hostname", "localhost");
+		var port = prefs.getString("port", "1024");
+		var password = prefs.getString("password", "");
+		var newSessionKey = hostname + ":" + port + ":" + password;
+
+		if (stompConnection != null && newSessionKey.equals(sessionKey))
+		{
+			return;
+		}
+		closeSession();
+		sessionKey = newSessionKey;
+
+		clearStoreIfInstanceChanged(prefs, hostname + ":" + port);
+
+		Log.d(TAG, "Opening session to " + hostname + ":" + port);
+		initializeClients(hostname, port, password);
+
+		stompConnection = new StompConnection("wss://" + hostname + ":" + port + "/ws", okHttpClient, new StompConnection.Listener()
+		{
+			@Override
+			public void onClientCreated(StompClient stompClient)
+			{
+				stompDispatcher.setStompClient(stompClient);
+			}
+
+			@Override
+			public void onReconnected()
+			{
+				stompDispatcher.notifyReconnected();
+			}
+		});
+		stompConnection.connect();
+
+		mediaSender = new MediaSender("wss://" + hostname + ":" + port + "/ws", okHttpClient, this::sendOnMainConnection);
+	}
+
+	private void closeSession()
+	{
+		if (stompConnection != null)
+		{
+			stompConnection.disconnect();
+			stompConnection = null;
+		}
+		if (mediaSender != null)
+		{
+			mediaSender.close();
+			mediaSender = null;
+		}
+		sessionKey = null;
+	}
+
+	/**
+	 * The stored backlogs and avatars use the ids of the instance they were fetched from.
+	 */
+	private void clearStoreIfInstanceChanged(SharedPreferences prefs, String instance)
+	{
+		var storeInstance = prefs.getString(STORE_INSTANCE_KEY, null);
+		if (!instance.equals(storeInstance))
+		{
+			if (storeInstance != null)
+			{
+				Log.d(TAG, "Instance changed, clearing the message store");
+				storeExecutor.execute(() -> {
+					messageStore.clear();
+					Application.getInstance().getDiskImageCache().clear();
+				});
+			}
+			prefs.edit().putString(STORE_INSTANCE_KEY, instance).apply();
+		}
+	}
+
+	private void initializeClients(String host, String port, String password)
 	{
 		var liberalSslContext = new LiberalSslContext(getApplicationContext());
 
@@ -93,79 +319,179 @@ public class ConnectionService extends Service implements AsyncImageView.ImageIn
 		okHttpClient = new OkHttpClient.Builder()
 				.sslSocketFactory(sslSocketFactory, liberalSslContext.getLiberalCert())
 				.hostnameVerifier((hostname, session) -> true)
-				.addInterceptor(new BasicAuthInterceptor("user", prefs.getString("password", "")))
+				.addInterceptor(new BasicAuthInterceptor("user", password))
 				.build();
 
 		var retrofit = new Retrofit.Builder()
-				.baseUrl("https://" + prefs.getString("hostname", "localhost") + ":" + prefs.getString("port", "1024") + "/api/v1/")
+				.baseUrl("https://" + host + ":" + port + "/api/v1/")
 				.client(okHttpClient)
 				.addConverterFactory(GsonConverterFactory.create(JsonUtils.GSON))
 				.build();
 
 		xeresApiClient = retrofit.create(XeresApi.class);
 
+		ownProfile = null;
+		invalidateLookups();
 		fetchOwnProfile(profile -> ownProfile = profile);
 	}
 
-	@Nullable
-	@Override
-	public IBinder onBind(Intent intent)
+	public void getChatRoomContext(Consumer<ChatRoomContext> consumer)
 	{
-		var prefs = PreferenceManager.getDefaultSharedPreferences(getApplicationContext());
-
-		initializeClientsIfNeeded(prefs);
-
-		stompClient = Stomp.over(Stomp.ConnectionProvider.OKHTTP, "wss://" + prefs.getString("hostname", "localhost") + ":" + prefs.getString("port", "1024") + "/ws", null, okHttpClient);
-		stompClient.connect(List.of(new StompHeader("accept-version", "1.1,1.0"))); // The header seems to be missing somehow
+		xeresApiClient.getChatRoomContext().enqueue(new Callback<>()
+		{
+			@Override
+			public void onResponse(Call<ChatRoomContext> call, Response<ChatRoomContext> response)
+			{
+				consumer.accept(response.body());
+			}
 
-		Log.d(TAG, "Stomp client connected");
-		return binder;
+			@Override
+			public void onFailure(Call<ChatRoomContext> call, Throwable throwable)
+			{
+				showError(throwable);
+			}
+		});
 	}
 
-	@Override
-	public boolean onUnbind(Intent intent)
+	/**
+	 * Gets the backlog of a chat room. The stored messages are given first, then the ones
+	 * that are newer on the server.
+	 *
+	 * @param roomId         the id of the room
+	 * @param storedConsumer gets the messages available on the device
+	 * @param newerConsumer  gets the messages that were fetched from the server
+	 */
+	public void getChatRoomBacklog(long roomId, Consumer<List<ChatRoomBacklog>> storedConsumer, Consumer<List<ChatRoomBacklog>> newerConsumer)
 	{
-		if (stompClient != null && stompClient.isConnected())
-		{
-			stompClient.disconnect();
-		}
-		return false;
+		storeExecutor.execute(() -> {
+			var stored = messageStore.getLatestChatRoomBacklogs(roomId, BACKLOG_PAGE_SIZE);
+			var last = stored.isEmpty() ? null : stored.get(stored.size() - 1).getCreated();
+			mainHandler.post(() -> {
+				storedConsumer.accept(stored);
+				syncChatRoomBacklog(roomId, last, newerConsumer);
+			});
+		});
 	}
 
-	public void getChatRoomContext(Consumer<ChatRoomContext> consumer)
+	private void syncChatRoomBacklog(long roomId, Instant last, Consumer<List<ChatRoomBacklog>> consumer)
 	{
-		xeresApiClient.getChatRoomContext().enqueue(new Callback<>()
+		// Without anything stored, only the most recent page is needed
+		xeresApiClient.getChatRoomMessages(roomId, last, null, last == null ? BACKLOG_PAGE_SIZE : null).enqueue(new Callback<>()
 		{
 			@Override
-			public void onResponse(Call<ChatRoomContext> call, Response<ChatRoomContext> response)
+			public void onResponse(Call<List<ChatRoomBacklog>> call, Response<List<ChatRoomBacklog>> response)
 			{
-				consumer.accept(response.body());
+				if (response.isSuccessful())
+				{
+					var newer = filterNewer(response.body(), last, ChatRoomBacklog::getCreated);
+					Log.d(TAG, "Got chat room backlogs! new: " + newer.size());
+					if (newer.isEmpty())
+					{
+						consumer.accept(newer);
+						return;
+					}
+					// Only what wasn't stored yet is new, the first ones can be the last stored messages
+					storeExecutor.execute(() -> {
+						var added = messageStore.addChatRoomBacklogs(roomId, newer);
+						// A server ignoring maxLines sends the whole history, it's all stored but only the last page is shown
+						mainHandler.post(() -> consumer.accept(last == null ? lastPage(added) : added));
+					});
+				}
+				else
+				{
+					Log.e(TAG, "Error HTTP: " + response.code());
+					Toast.makeText(ConnectionService.this, "Error HTTP: " + response.code(), Toast.LENGTH_SHORT).show();
+				}
 			}
 
 			@Override
-			public void onFailure(Call<ChatRoomContext> call, Throwable throwable)
+			public void onFailure(Call<List<ChatRoomBacklog>> call, Throwable throwable)
 			{
 				showError(throwable);
 			}
 		});
 	}
 
-	public void getChatRoomBacklog(long roomId, Consumer<List<ChatRoomBacklog>> consumer)
+	/**
+	 * Fetches the messages that were missed while the connection was lost.
+	 *
+	 * @param roomId   the id of the room
+	 * @param consumer gets the messages that are newer than the stored ones
+	 */
+	public void catchUpChatRoomBacklog(long roomId, Consumer<List<ChatRoomBacklog>> consumer)
+	{
+		storeExecutor.execute(() -> {
+			var stored = messageStore.getLatestChatRoomBacklogs(roomId, 1);
+			var last = stored.isEmpty() ? null : stored.get(0).getCreated();
+			mainHandler.post(() -> syncChatRoomBacklog(roomId, last, newer -> {
+				caughtUpMessageCount += newer.size();
+				Log.d(TAG, "Caught up " + newer.size() + " messages (total: " + caughtUpMessageCount + ")");
+				consumer.accept(newer);
+			}));
+		});
+	}
+
+	/**
+	 * Gets the page of messages before a given time in a chat room. The store is used first, then the server.
+	 *
+	 * @param roomId   the id of the room
+	 * @param before   the creation time of the first message that we have
+	 * @param consumer gets the messages, an empty list if there's none left or null if there was an error
+	 */
+	public void getOlderChatRoomBacklog(long roomId, Instant before, Consumer<List<ChatRoomBacklog>> consumer)
+	{
+		storeExecutor.execute(() -> {
+			var stored = messageStore.getChatRoomBacklogsBefore(roomId, before, BACKLOG_PAGE_SIZE);
+			mainHandler.post(() -> {
+				if (stored.isEmpty())
+				{
+					fetchOlderChatRoomBacklog(roomId, before, consumer);
+				}
+				else
+				{
+					consumer.accept(stored);
+				}
+			});
+		});
+	}
+
+	private void fetchOlderChatRoomBacklog(long roomId, Instant before, Consumer<List<ChatRoomBacklog>> consumer)
 	{
-		xeresApiClient.getChatRoomMessages(roomId).enqueue(new Callback<>()
+		fetchOlderChatRoomBacklog(roomId, before, true, consumer);
+	}
+
+	/**
+	 * Fetches the messages before a given time.
+	 *
+	 * @param bounded false to fetch the whole history, for servers that ignore the "before" parameter
+	 */
+	private void fetchOlderChatRoomBacklog(long roomId, Instant before, boolean bounded, Consumer<List<ChatRoomBacklog>> consumer)
+	{
+		xeresApiClient.getChatRoomMessages(roomId, null, bounded ? before : null, bounded ? BACKLOG_PAGE_SIZE : null).enqueue(new Callback<>()
 		{
 			@Override
 			public void onResponse(Call<List<ChatRoomBacklog>> call, Response<List<ChatRoomBacklog>> response)
 			{
 				if (response.isSuccessful())
 				{
-					Log.d(TAG, "Got chat room backlogs!");
-					consumer.accept(response.body());
+					var older = filterOlder(response.body(), before, ChatRoomBacklog::getCreated);
+					if (bounded && older.isEmpty() && isFullPage(response.body()))
+					{
+						Log.d(TAG, "The server ignored \"before\", fetching the whole history");
+						fetchOlderChatRoomBacklog(roomId, before, false, consumer);
+						return;
+					}
+					if (!older.isEmpty())
+					{
+						storeExecutor.execute(() -> messageStore.addChatRoomBacklogs(roomId, older));
+					}
+					consumer.accept(lastPage(older));
 				}
 				else
 				{
 					Log.e(TAG, "Error HTTP: " + response.code());
 					Toast.makeText(ConnectionService.this, "Error HTTP: " + response.code(), Toast.LENGTH_SHORT).show();
+					consumer.accept(null);
 				}
 			}
 
@@ -173,10 +499,26 @@ public class ConnectionService extends Service implements AsyncImageView.ImageIn
 			public void onFailure(Call<List<ChatRoomBacklog>> call, Throwable throwable)
 			{
 				showError(throwable);
+				consumer.accept(null);
 			}
 		});
 	}
 
+	/**
+	 * Gets the page of stored messages after a given time in a chat room.
+	 *
+	 * @param roomId   the id of the room
+	 * @param after    the creation time of the last message that we have
+	 * @param consumer gets the messages, an empty list if there's none left
+	 */
+	public void getNewerChatRoomBacklog(long roomId, Instant after, Consumer<List<ChatRoomBacklog>> consumer)
+	{
+		storeExecutor.execute(() -> {
+			var stored = messageStore.getChatRoomBacklogsAfter(roomId, after, BACKLOG_PAGE_SIZE);
+			mainHandler.post(() -> consumer.accept(stored));
+		});
+	}
+
 	public Profile getOwnProfile()
 	{
 		return ownProfile;
@@ -209,7 +551,72 @@ public class ConnectionService extends Service implements AsyncImageView.ImageIn
 		});
 	}
 
+	/**
+	 * Finds a profile. Its locations are cached as well.
+	 *
+	 * @param id       the id of the profile
+	 * @param consumer gets the profile, possibly from the cache
+	 */
 	public void findProfileById(long id, Consumer<Profile> consumer)
+	{
+		profileCache.get(id, consumer);
+	}
+
+	public void findLocationById(long id, Consumer<Location> consumer)
+	{
+		locationCache.get(id, consumer);
+	}
+
+	/**
+	 * Forgets the cached profiles and locations, for when they might have changed.
+	 */
+	public void invalidateLookups()
+	{
+		profileCache.invalidateAll();
+		locationCache.invalidateAll();
+		locationIdsByIdentifier.clear();
+		profileIdsByLocationId.clear();
+	}
+
+	/**
+	 * Forgets the cached location and its profile, for when its presence changed.
+	 *
+	 * @param locationIdentifier the identifier of the location, null if unknown
+	 */
+	private void invalidateLocation(String locationIdentifier)
+	{
+		if (locationIdentifier == null)
+		{
+			invalidateLookups();
+			return;
+		}
+		var locationId = locationIdsByIdentifier.get(locationIdentifier);
+		if (locationId == null)
+		{
+			return; // Never looked up
+		}
+		locationCache.invalidate(locationId);
+		var profileId = profileIdsByLocationId.get(locationId);
+		if (profileId != null)
+		{
+			profileCache.invalidate(profileId);
+		}
+	}
+
+	private void rememberLocation(Location location, Long profileId)
+	{
+		if (location.getLocationIdentifier() == null)
+		{
+			return;
+		}
+		locationIdsByIdentifier.put(Id.toString(location.getLocationIdentifier()), location.getId());
+		if (profileId != null)
+		{
+			profileIdsByLocationId.put(location.getId(), profileId);
+		}
+	}
+
+	private void fetchProfileById(long id, Consumer<Profile> consumer)
 	{
 		xeresApiClient.findProfileById(id).enqueue(new Callback<>()
 		{
@@ -218,12 +625,21 @@ public class ConnectionService extends Service implements AsyncImageView.ImageIn
 			{
 				if (response.isSuccessful())
 				{
-					consumer.accept(response.body());
+					var profile = response.body();
+					if (profile != null && profile.getLocations() != null)
+					{
+						profile.getLocations().forEach(location -> {
+							locationCache.put(location.getId(), location);
+							rememberLocation(location, profile.getId());
+						});
+					}
+					consumer.accept(profile);
 				}
 				else
 				{
 					Log.e(TAG, "Error HTTP: " + response.code());
 					Toast.makeText(ConnectionService.this, "Error HTTP: " + response.code(), Toast.LENGTH_SHORT).show();
+					consumer.accept(null);
 				}
 			}
 
@@ -231,11 +647,12 @@ public class ConnectionService extends Service implements AsyncImageView.ImageIn
 			public void onFailure(Call<Profile> call, Throwable throwable)
 			{
 				showError(throwable);
+				consumer.accept(null);
 			}
 		});
 	}
 
-	public void findLocationById(long id, Consumer<Location> consumer)
+	private void fetchLocationById(long id, Consumer<Location> consumer)
 	{
 		xeresApiClient.findLocationById(id).enqueue(new Callback<>()
 		{
@@ -244,12 +661,18 @@ public class ConnectionService extends Service implements AsyncImageView.ImageIn
 			{
 				if (response.isSuccessful())
 				{
-					consumer.accept(response.body());
+					var location = response.body();
+					if (location != null)
+					{
+						rememberLocation(location, null);
+					}
+					consumer.accept(location);
 				}
 				else
 				{
 					Log.e(TAG, "Error HTTP: " + response.code());
 					Toast.makeText(ConnectionService.this, "Error HTTP: " + response.code(), Toast.LENGTH_SHORT).show();
+					consumer.accept(null);
 				}
 			}
 
@@ -257,21 +680,54 @@ public class ConnectionService extends Service implements AsyncImageView.ImageIn
 			public void onFailure(Call<Location> call, Throwable throwable)
 			{
 				showError(throwable);
+				consumer.accept(null);
 			}
 		});
 	}
 
-	public void getChatBacklog(long locationId, Consumer<List<ChatBacklog>> consumer)
+	/**
+	 * Gets the backlog of a private chat. The stored messages are given first, then the ones
+	 * that are newer on the server.
+	 *
+	 * @param locationId     the id of the location
+	 * @param storedConsumer gets the messages available on the device
+	 * @param newerConsumer  gets the messages that were fetched from the server
+	 */
+	public void getChatBacklog(long locationId, Consumer<List<ChatBacklog>> storedConsumer, Consumer<List<ChatBacklog>> newerConsumer)
 	{
-		xeresApiClient.getChatMessages(locationId).enqueue(new Callback<>()
+		storeExecutor.execute(() -> {
+			var stored = messageStore.getLatestChatBacklogs(locationId, BACKLOG_PAGE_SIZE);
+			var last = stored.isEmpty() ? null : stored.get(stored.size() - 1).getCreated();
+			mainHandler.post(() -> {
+				storedConsumer.accept(stored);
+				syncChatBacklog(locationId, last, newerConsumer);
+			});
+		});
+	}
+
+	private void syncChatBacklog(long locationId, Instant last, Consumer<List<ChatBacklog>> consumer)
+	{
+		// Without anything stored, only the most recent page is needed
+		xeresApiClient.getChatMessages(locationId, last, null, last == null ? BACKLOG_PAGE_SIZE : null).enqueue(new Callback<>()
 		{
 			@Override
 			public void onResponse(Call<List<ChatBacklog>> call, Response<List<ChatBacklog>> response)
 			{
 				if (response.isSuccessful())
 				{
-					Log.d(TAG, "Got chat backlogs!");
-					consumer.accept(response.body());
+					var newer = filterNewer(response.body(), last, ChatBacklog::getCreated);
+					Log.d(TAG, "Got chat backlogs! new: " + newer.size());
+					if (newer.isEmpty())
+					{
+						consumer.accept(newer);
+						return;
+					}
+					// Only what wasn't stored yet is new, the first ones can be the last stored messages
+					storeExecutor.execute(() -> {
+						var added = messageStore.addChatBacklogs(locationId, newer);
+						// A server ignoring maxLines sends the whole history, it's all stored but only the last page is shown
+						mainHandler.post(() -> consumer.accept(last == null ? lastPage(added) : added));
+					});
 				}
 				else
 				{
@@ -288,6 +744,168 @@ public class ConnectionService extends Service implements AsyncImageView.ImageIn
 		});
 	}
 
+	/**
+	 * Fetches the messages that were missed while the connection was lost.
+	 *
+	 * @param locationId the id of the location
+	 * @param consumer   gets the messages that are newer than the stored ones
+	 */
+	public void catchUpChatBacklog(long locationId, Consumer<List<ChatBacklog>> consumer)
+	{
+		storeExecutor.execute(() -> {
+			var stored = messageStore.getLatestChatBacklogs(locationId, 1);
+			var last = stored.isEmpty() ? null : stored.get(0).getCreated();
+			mainHandler.post(() -> syncChatBacklog(locationId, last, newer -> {
+				caughtUpMessageCount += newer.size();
+				Log.d(TAG, "Caught up " + newer.size() + " messages (total: " + caughtUpMessageCount + ")");
+				consumer.accept(newer);
+			}));
+		});
+	}
+
+	/**
+	 * Gets the page of messages before a given time in a private chat. The store is used first, then the server.
+	 *
+	 * @param locationId the id of the location
+	 * @param before     the creation time of the first message that we have
+	 * @param consumer   gets the messages, an empty list if there's none left or null if there was an error
+	 */
+	public void getOlderChatBacklog(long locationId, Instant before, Consumer<List<ChatBacklog>> consumer)
+	{
+		storeExecutor.execute(() -> {
+			var stored = messageStore.getChatBacklogsBefore(locationId, before, BACKLOG_PAGE_SIZE);
+			mainHandler.post(() -> {
+				if (stored.isEmpty())
+				{
+					fetchOlderChatBacklog(locationId, before, consumer);
+				}
+				else
+				{
+					consumer.accept(stored);
+				}
+			});
+		});
+	}
+
+	private void fetchOlderChatBacklog(long locationId, Instant before, Consumer<List<ChatBacklog>> consumer)
+	{
+		fetchOlderChatBacklog(locationId, before, true, consumer);
+	}
+
+	/**
+	 * Fetches the messages before a given time.
+	 *
+	 * @param bounded false to fetch the whole history, for servers that ignore the "before" parameter
+	 */
+	private void fetchOlderChatBacklog(long locationId, Instant before, boolean bounded, Consumer<List<ChatBacklog>> consumer)
+	{
+		xeresApiClient.getChatMessages(locationId, null, bounded ? before : null, bounded ? BACKLOG_PAGE_SIZE : null).enqueue(new Callback<>()
+		{
+			@Override
+			public void onResponse(Call<List<ChatBacklog>> call, Response<List<ChatBacklog>> response)
+			{
+				if (response.isSuccessful())
+				{
+					var older = filterOlder(response.body(), before, ChatBacklog::getCreated);
+					if (bounded && older.isEmpty() && isFullPage(response.body()))
+					{
+						Log.d(TAG, "The server ignored \"before\", fetching the whole history");
+						fetchOlderChatBacklog(locationId, before, false, consumer);
+						return;
+					}
+					if (!older.isEmpty())
+					{
+						storeExecutor.execute(() -> messageStore.addChatBacklogs(locationId, older));
+					}
+					consumer.accept(lastPage(older));
+				}
+				else
+				{
+					Log.e(TAG, "Error HTTP: " + response.code());
+					Toast.makeText(ConnectionService.this, "Error HTTP: " + response.code(), Toast.LENGTH_SHORT).show();
+					consumer.accept(null);
+				}
+			}
+
+			@Override
+			public void onFailure(Call<List<ChatBacklog>> call, Throwable throwable)
+			{
+				showError(throwable);
+				consumer.accept(null);
+			}
+		});
+	}
+
+	/**
+	 * Gets the page of stored messages after a given time in a private chat.
+	 *
+	 * @param locationId the id of the location
+	 * @param after      the creation time of the last message that we have
+	 * @param consumer   gets the messages, an empty list if there's none left
+	 */
+	public void getNewerChatBacklog(long locationId, Instant after, Consumer<List<ChatBacklog>> consumer)
+	{
+		storeExecutor.execute(() -> {
+			var stored = messageStore.getChatBacklogsAfter(locationId, after, BACKLOG_PAGE_SIZE);
+			mainHandler.post(() -> consumer.accept(stored));
+		});
+	}
+
+	/**
+	 * Only keeps what's newer than what we have. The store has millisecond precision and
+	 * the server might not support the "from" parameter, so we have to do it ourselves.
+	 * Messages from the same millisecond as the last one are kept because they might not
+	 * be stored yet, the store skips those that are.
+	 */
+	private static <T> List<T> filterNewer(List<T> backlogs, Instant last, Function<T, Instant> createdGetter)
+	{
+		if (backlogs == null)
+		{
+			return new ArrayList<>();
+		}
+		if (last == null)
+		{
+			return backlogs;
+		}
+		var lastMillis = last.toEpochMilli();
+		return backlogs.stream()
+				.filter(backlog -> createdGetter.apply(backlog).toEpochMilli() >= lastMillis)
+				.collect(Collectors.toList());
+	}
+
+	private static <T> List<T> filterOlder(List<T> backlogs, Instant before, Function<T, Instant> createdGetter)
+	{
+		if (backlogs == null)
+		{
+			return new ArrayList<>();
+		}
+		var beforeMillis = before.toEpochMilli();
+		return backlogs.stream()
+				.filter(backlog -> createdGetter.apply(backlog).toEpochMilli() < beforeMillis)
+				.collect(Collectors.toList());
+	}
+
+	/**
+	 * A full page that has nothing older than asked means the server ignored the "before" parameter.
+	 */
+	private static boolean isFullPage(List<?> backlogs)
+	{
+		return backlogs != null && backlogs.size() >= BACKLOG_PAGE_SIZE;
+	}
+
+	/**
+	 * Servers without paging support return everything. It's all stored
+	 * but only the last page is shown.
+	 */
+	private static <T> List<T> lastPage(List<T> backlogs)
+	{
+		if (backlogs.size() <= BACKLOG_PAGE_SIZE)
+		{
+			return backlogs;
+		}
+		return new ArrayList<>(backlogs.subList(backlogs.size() - BACKLOG_PAGE_SIZE, backlogs.size()));
+	}
+
 	public void getContacts(Consumer<List<Contact>> consumer)
 	{
 		Log.d(TAG, "Calling getContacts...");
@@ -315,9 +933,21 @@ public class ConnectionService extends Service implements AsyncImageView.ImageIn
 		});
 	}
 
-	public Observable<StompMessage> getMessages(String topic)
+	/**
+	 * Listens to the messages of a topic that are sent to a destination.
+	 *
+	 * @param topic         the topic, for example {@link #CHAT_PRIVATE_TOPIC}
+	 * @param destinationId the destination (location identifier, room id, ...)
+	 * @param listener      the listener
+	 */
+	public void addMessageListener(String topic, String destinationId, StompDispatcher.MessageListener listener)
+	{
+		stompDispatcher.addListener(topic, destinationId, listener);
+	}
+
+	public void removeMessageListener(String topic, String destinationId, StompDispatcher.MessageListener listener)
 	{
-		return stompClient.topic(topic);
+		stompDispatcher.removeListener(topic, destinationId, listener);
 	}
 
 	public void sendChatMessage(String locationIdentifier, String message)
@@ -325,7 +955,7 @@ public class ConnectionService extends Service implements AsyncImageView.ImageIn
 		var headers = List.of(new StompHeader(StompHeader.DESTINATION, "/app/chat/private"),
 				new StompHeader("messageType", message == null ? "CHAT_TYPING_NOTIFICATION" : "CHAT_PRIVATE_MESSAGE"),
 				new StompHeader("destinationId", locationIdentifier));
-		sendMessage(message, headers);
+		sendMessage(locationIdentifier, message, headers);
 	}
 
 	public void sendChatRoomMessage(long roomId, String message)
@@ -334,15 +964,26 @@ public class ConnectionService extends Service implements AsyncImageView.ImageIn
 		var headers = List.of(new StompHeader(StompHeader.DESTINATION, "/app/chat/room"),
 				new StompHeader("messageType", message == null ? "CHAT_ROOM_TYPING_NOTIFICATION" : "CHAT_ROOM_MESSAGE"),
 				new StompHeader("destinationId", String.valueOf(roomId)));
-		sendMessage(message, headers);
+		sendMessage(String.valueOf(roomId), message, headers);
 	}
 
-	private void sendMessage(String message, List<StompHeader> headers)
+	private void sendMessage(String destinationId, String message, List<StompHeader> headers)
 	{
 		var chatMessage = new ChatMessage(message);
 		var stompMessage = new StompMessage(StompCommand.SEND, headers, JsonUtils.GSON.toJson(chatMessage));
+		// Messages wait behind the media sent to the same destination so that they arrive in order
+		if (message != null && (message.length() > MEDIA_MESSAGE_SIZE || mediaSender.hasPending(destinationId)))
+		{
+			mediaSender.send(destinationId, stompMessage);
+			return;
+		}
+		sendOnMainConnection(stompMessage);
+	}
+
+	private void sendOnMainConnection(StompMessage stompMessage)
+	{
 		Log.d(TAG, "Called stomp client");
-		stompClient.send(stompMessage).subscribe(() -> Log.d(TAG, "message sent!"),
+		stompConnection.getStompClient().send(stompMessage).subscribe(() -> Log.d(TAG, "message sent!"),
 				throwable -> Log.e(TAG, "Error while sending data", throwable));
 	}
 
@@ -388,22 +1029,15 @@ public class ConnectionService extends Service implements AsyncImageView.ImageIn
 		@Override
 		public InputStream getInputStream() throws IOException
 		{
-			if (url.startsWith("data:"))
-			{
-				var decoded = Base64.decode(url.substring(url.indexOf(',') + 1), Base64.NO_WRAP);
-				return new ByteArrayInputStream(decoded);
-			}
-			else
+			// Inline images never get here, they're read from their message by ImageEngine
+			Response<ResponseBody> response = xeresApiClient.getImage(Long.parseLong(url)).execute();
+			if (response.isSuccessful())
 			{
-				Response<ResponseBody> response = xeresApiClient.getImage(Long.parseLong(url)).execute();
-				if (response.isSuccessful())
+				try (var body = response.body())
 				{
-					try (var body = response.body())
+					if (body != null)
 					{
-						if (body != null)
-						{
-							input = body.byteStream();
-						}
+						input = new ByteArrayInputStream(body.bytes()); // The body is closed when leaving
 					}
 				}
 			}
@@ -489,6 +1123,33 @@ public class ConnectionService extends Service implements AsyncImageView.ImageIn
 		});
 	}
 
+	/**
+	 * Gets the number of times the connection came back after being lost.
+	 */
+	public int getReconnectCount()
+	{
+		return stompConnection != null ? stompConnection.getReconnectCount() : 0;
+	}
+
+	/**
+	 * Gets how long it took for the connection to come back, the last time it was lost.
+	 *
+	 * @return the latency in milliseconds
+	 */
+	public long getLastReconnectLatency()
+	{
+		return stompConnection != null ? stompConnection.getLastReconnectLatency() : 0L;
+	}
+
+	/**
+	 * Gets the number of messages fetched after the connection was lost. It can include live
+	 * messages that were already shown before it was lost.
+	 */
+	public int getCaughtUpMessageCount()
+	{
+		return caughtUpMessageCount;
+	}
+
 	private void showError(Throwable throwable)
 	{
 		Toast.makeText(this, "Network error: " + throwable.getMessage(), Toast.LENGTH_SHORT).show();
@@ -19,20 +19,23 @@
 
 package io.xeres.mobile.service.gson;
 
-import android.util.Base64;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
 
-import com.google.gson.JsonDeserializationContext;
-import com.google.gson.JsonDeserializer;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonParseException;
+import java.io.IOException;
 
-import java.lang.reflect.Type;
-
-public class ByteArrayDeserializer implements JsonDeserializer<byte[]>
+public class ByteArrayTypeAdapter extends TypeAdapter<byte[]>
 {
 	@Override
-	public byte[] deserialize(JsonElement json, Type typeOfT, JsonDeserializationContext context) throws JsonParseException
+	public void write(JsonWriter out, byte[] bytes) throws IOException
+	{
+		GsonStreams.writeBytes(out, bytes);
+	}
+
+	@Override
+	public byte[] read(JsonReader in) throws IOException
 	{
-		return Base64.decode(json.getAsString(), Base64.NO_WRAP);
+		return GsonStreams.nextBytes(in);
 	}
 }
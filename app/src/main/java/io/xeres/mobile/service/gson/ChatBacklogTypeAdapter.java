@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2025 by David Gerber - https://zapek.com
+ *
+ * This file is part of Xeres-Android.
+ *
+ * Xeres-Android is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Xeres-Android is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Xeres-Android.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.xeres.mobile.service.gson;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+
+import io.xeres.mobile.service.json.ChatBacklog;
+
+public class ChatBacklogTypeAdapter extends TypeAdapter<ChatBacklog>
+{
+	@Override
+	public void write(JsonWriter out, ChatBacklog chatBacklog) throws IOException
+	{
+		if (chatBacklog == null)
+		{
+			out.nullValue();
+			return;
+		}
+		out.beginObject();
+		out.name("created");
+		GsonStreams.writeInstant(out, chatBacklog.getCreated());
+		out.name("own");
+		out.value(chatBacklog.isOwn());
+		out.name("message");
+		out.value(chatBacklog.getMessage());
+		out.endObject();
+	}
+
+	@Override
+	public ChatBacklog read(JsonReader in) throws IOException
+	{
+		if (GsonStreams.skipNull(in))
+		{
+			return null;
+		}
+		var chatBacklog = new ChatBacklog();
+		in.beginObject();
+		while (in.hasNext())
+		{
+			switch (in.nextName())
+			{
+				case "created":
+					chatBacklog.setCreated(GsonStreams.nextInstant(in));
+					break;
+				case "own":
+					chatBacklog.setOwn(in.nextBoolean());
+					break;
+				case "message":
+					chatBacklog.setMessage(GsonStreams.nextString(in));
+					break;
+				default:
+					in.skipValue();
+					break;
+			}
+		}
+		in.endObject();
+		return chatBacklog;
+	}
+}
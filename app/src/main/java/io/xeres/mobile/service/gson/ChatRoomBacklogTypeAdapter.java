@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2025 by David Gerber - https://zapek.com
+ *
+ * This file is part of Xeres-Android.
+ *
+ * Xeres-Android is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Xeres-Android is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Xeres-Android.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.xeres.mobile.service.gson;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+
+import io.xeres.mobile.service.json.ChatRoomBacklog;
+
+public class ChatRoomBacklogTypeAdapter extends TypeAdapter<ChatRoomBacklog>
+{
+	@Override
+	public void write(JsonWriter out, ChatRoomBacklog chatRoomBacklog) throws IOException
+	{
+		if (chatRoomBacklog == null)
+		{
+			out.nullValue();
+			return;
+		}
+		out.beginObject();
+		out.name("created");
+		GsonStreams.writeInstant(out, chatRoomBacklog.getCreated());
+		out.name("gxsId");
+		GsonStreams.writeGxsId(out, chatRoomBacklog.getGxsId());
+		out.name("nickname");
+		out.value(chatRoomBacklog.getNickname());
+		out.name("message");
+		out.value(chatRoomBacklog.getMessage());
+		out.endObject();
+	}
+
+	@Override
+	public ChatRoomBacklog read(JsonReader in) throws IOException
+	{
+		if (GsonStreams.skipNull(in))
+		{
+			return null;
+		}
+		var chatRoomBacklog = new ChatRoomBacklog();
+		in.beginObject();
+		while (in.hasNext())
+		{
+			switch (in.nextName())
+			{
+				case "created":
+					chatRoomBacklog.setCreated(GsonStreams.nextInstant(in));
+					break;
+				case "gxsId":
+					chatRoomBacklog.setGxsId(GsonStreams.nextGxsId(in));
+					break;
+				case "nickname":
+					chatRoomBacklog.setNickname(GsonStreams.nextString(in));
+					break;
+				case "message":
+					chatRoomBacklog.setMessage(GsonStreams.nextString(in));
+					break;
+				default:
+					in.skipValue();
+					break;
+			}
+		}
+		in.endObject();
+		return chatRoomBacklog;
+	}
+}
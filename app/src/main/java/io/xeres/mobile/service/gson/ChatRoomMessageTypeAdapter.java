@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2025 by David Gerber - https://zapek.com
+ *
+ * This file is part of Xeres-Android.
+ *
+ * Xeres-Android is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Xeres-Android is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Xeres-Android.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.xeres.mobile.service.gson;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+
+import io.xeres.mobile.service.json.ChatRoomMessage;
+
+public class ChatRoomMessageTypeAdapter extends TypeAdapter<ChatRoomMessage>
+{
+	@Override
+	public void write(JsonWriter out, ChatRoomMessage chatRoomMessage) throws IOException
+	{
+		if (chatRoomMessage == null)
+		{
+			out.nullValue();
+			return;
+		}
+		out.beginObject();
+		out.name("roomId");
+		out.value(chatRoomMessage.getRoomId());
+		out.name("senderNickname");
+		out.value(chatRoomMessage.getSenderNickname());
+		out.name("gxsId");
+		GsonStreams.writeGxsId(out, chatRoomMessage.getGxsId());
+		out.name("content");
+		out.value(chatRoomMessage.getContent());
+		out.endObject();
+	}
+
+	@Override
+	public ChatRoomMessage read(JsonReader in) throws IOException
+	{
+		if (GsonStreams.skipNull(in))
+		{
+			return null;
+		}
+		var chatRoomMessage = new ChatRoomMessage();
+		in.beginObject();
+		while (in.hasNext())
+		{
+			switch (in.nextName())
+			{
+				case "roomId":
+					chatRoomMessage.setRoomId(in.nextLong());
+					break;
+				case "senderNickname":
+					chatRoomMessage.setSenderNickname(GsonStreams.nextString(in));
+					break;
+				case "gxsId":
+					chatRoomMessage.setGxsId(GsonStreams.nextGxsId(in));
+					break;
+				case "content":
+					chatRoomMessage.setContent(GsonStreams.nextString(in));
+					break;
+				default:
+					in.skipValue();
+					break;
+			}
+		}
+		in.endObject();
+		return chatRoomMessage;
+	}
+}
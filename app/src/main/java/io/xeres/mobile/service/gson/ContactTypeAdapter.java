@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2025 by David Gerber - https://zapek.com
+ *
+ * This file is part of Xeres-Android.
+ *
+ * Xeres-Android is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Xeres-Android is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Xeres-Android.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.xeres.mobile.service.gson;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+
+import io.xeres.mobile.service.json.Availability;
+import io.xeres.mobile.service.json.Contact;
+
+public class ContactTypeAdapter extends TypeAdapter<Contact>
+{
+	@Override
+	public void write(JsonWriter out, Contact contact) throws IOException
+	{
+		if (contact == null)
+		{
+			out.nullValue();
+			return;
+		}
+		out.beginObject();
+		out.name("name");
+		out.value(contact.getName());
+		out.name("profileId");
+		out.value(contact.getProfileId());
+		out.name("identityId");
+		out.value(contact.getIdentityId());
+		out.name("availability");
+		GsonStreams.writeEnum(out, contact.getAvailability());
+		out.name("accepted");
+		out.value(contact.isAccepted());
+		out.endObject();
+	}
+
+	@Override
+	public Contact read(JsonReader in) throws IOException
+	{
+		if (GsonStreams.skipNull(in))
+		{
+			return null;
+		}
+		var contact = new Contact();
+		in.beginObject();
+		while (in.hasNext())
+		{
+			switch (in.nextName())
+			{
+				case "name":
+					contact.setName(GsonStreams.nextString(in));
+					break;
+				case "profileId":
+					contact.setProfileId(in.nextLong());
+					break;
+				case "identityId":
+					contact.setIdentityId(in.nextLong());
+					break;
+				case "availability":
+					contact.setAvailability(GsonStreams.nextEnum(in, Availability.class));
+					break;
+				case "accepted":
+					contact.setAccepted(in.nextBoolean());
+					break;
+				default:
+					in.skipValue();
+					break;
+			}
+		}
+		in.endObject();
+		return contact;
+	}
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2025 by David Gerber - https://zapek.com
+ *
+ * This file is part of Xeres-Android.
+ *
+ * Xeres-Android is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Xeres-Android is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Xeres-Android.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.xeres.mobile.service.gson;
+
+import android.util.Base64;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.time.Instant;
+
+import io.xeres.mobile.service.json.GxsId;
+
+/**
+ * Helpers for the streaming type adapters. The readers accept JSON nulls.
+ */
+final class GsonStreams
+{
+	private GsonStreams()
+	{
+		throw new UnsupportedOperationException("Utility class");
+	}
+
+	static boolean skipNull(JsonReader in) throws IOException
+	{
+		if (in.peek() == JsonToken.NULL)
+		{
+			in.nextNull();
+			return true;
+		}
+		return false;
+	}
+
+	static String nextString(JsonReader in) throws IOException
+	{
+		return skipNull(in) ? null : in.nextString();
+	}
+
+	static Instant nextInstant(JsonReader in) throws IOException
+	{
+		return skipNull(in) ? null : IsoInstantParser.parse(in.nextString());
+	}
+
+	static byte[] nextBytes(JsonReader in) throws IOException
+	{
+		return skipNull(in) ? null : Base64.decode(in.nextString(), Base64.NO_WRAP);
+	}
+
+	/**
+	 * Reads an enum constant. Unknown constants give null, like Gson does.
+	 */
+	static <E extends Enum<E>> E nextEnum(JsonReader in, Class<E> enumClass) throws IOException
+	{
+		var name = nextString(in);
+		if (name == null)
+		{
+			return null;
+		}
+		try
+		{
+			return Enum.valueOf(enumClass, name);
+		}
+		catch (IllegalArgumentException e)
+		{
+			return null;
+		}
+	}
+
+	static GxsId nextGxsId(JsonReader in) throws IOException
+	{
+		if (skipNull(in))
+		{
+			return null;
+		}
+		var gxsId = new GxsId();
+		in.beginObject();
+		while (in.hasNext())
+		{
+			if (in.nextName().equals("bytes"))
+			{
+				gxsId.setBytes(nextBytes(in));
+			}
+			else
+			{
+				in.skipValue();
+			}
+		}
+		in.endObject();
+		return gxsId;
+	}
+
+	static void writeInstant(JsonWriter out, Instant instant) throws IOException
+	{
+		out.value(instant != null ? instant.toString() : null);
+	}
+
+	static void writeBytes(JsonWriter out, byte[] bytes) throws IOException
+	{
+		out.value(bytes != null ? Base64.encodeToString(bytes, Base64.NO_WRAP) : null);
+	}
+
+	static void writeEnum(JsonWriter out, Enum<?> value) throws IOException
+	{
+		out.value(value != null ? value.name() : null);
+	}
+
+	static void writeGxsId(JsonWriter out, GxsId gxsId) throws IOException
+	{
+		if (gxsId == null)
+		{
+			out.nullValue();
+			return;
+		}
+		out.beginObject();
+		out.name("bytes");
+		writeBytes(out, gxsId.getBytes());
+		out.endObject();
+	}
+}
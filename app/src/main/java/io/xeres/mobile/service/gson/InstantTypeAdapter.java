@@ -19,19 +19,24 @@
 
 package io.xeres.mobile.service.gson;
 
-import com.google.gson.JsonDeserializationContext;
-import com.google.gson.JsonDeserializer;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
 
-import java.lang.reflect.Type;
+import java.io.IOException;
 import java.time.Instant;
 
-public class InstantDeserializer implements JsonDeserializer<Instant>
+public class InstantTypeAdapter extends TypeAdapter<Instant>
 {
 	@Override
-	public Instant deserialize(JsonElement json, Type typeOfT, JsonDeserializationContext context) throws JsonParseException
+	public void write(JsonWriter out, Instant instant) throws IOException
 	{
-		return Instant.parse(json.getAsString());
+		GsonStreams.writeInstant(out, instant);
+	}
+
+	@Override
+	public Instant read(JsonReader in) throws IOException
+	{
+		return GsonStreams.nextInstant(in);
 	}
 }
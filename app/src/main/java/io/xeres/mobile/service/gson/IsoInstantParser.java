@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2025 by David Gerber - https://zapek.com
+ *
+ * This file is part of Xeres-Android.
+ *
+ * Xeres-Android is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Xeres-Android is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Xeres-Android.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.xeres.mobile.service.gson;
+
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Parses ISO-8601 timestamps like "2025-03-01T12:34:56.789Z" without going through
+ * the formatter machinery. Anything unusual is handed to the standard parser.
+ */
+public final class IsoInstantParser
+{
+	private static final long DAYS_0000_TO_1970 = 719_528L;
+	private static final int[] DAYS_IN_MONTH = {31, 29, 31, 30, 31, 30, 31, 31, 30, 31, 30, 31};
+
+	private IsoInstantParser()
+	{
+		throw new UnsupportedOperationException("Utility class");
+	}
+
+	public static Instant parse(String text)
+	{
+		var length = text.length();
+		if (length < 20 || text.charAt(4) != '-' || text.charAt(7) != '-' || text.charAt(10) != 'T' || text.charAt(13) != ':' || text.charAt(16) != ':')
+		{
+			return parseSlow(text);
+		}
+
+		var year = digits(text, 0, 4);
+		var month = digits(text, 5, 7);
+		var day = digits(text, 8, 10);
+		var hour = digits(text, 11, 13);
+		var minute = digits(text, 14, 16);
+		var second = digits(text, 17, 19);
+		if (year < 0 || month < 1 || month > 12 || day < 1 || day > DAYS_IN_MONTH[month - 1] || hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59)
+		{
+			return parseSlow(text);
+		}
+		if (month == 2 && day == 29 && !isLeapYear(year))
+		{
+			return parseSlow(text);
+		}
+
+		var position = 19;
+		var nanos = 0;
+		if (text.charAt(position) == '.')
+		{
+			position++;
+			var scale = 0;
+			while (position < length && isDigit(text.charAt(position)))
+			{
+				if (scale < 9)
+				{
+					nanos = nanos * 10 + (text.charAt(position) - '0');
+					scale++;
+				}
+				position++;
+			}
+			if (scale == 0)
+			{
+				return parseSlow(text);
+			}
+			for (; scale < 9; scale++)
+			{
+				nanos *= 10;
+			}
+		}
+
+		int offsetSeconds;
+		if (position == length - 1 && text.charAt(position) == 'Z')
+		{
+			offsetSeconds = 0;
+		}
+		else if (position == length - 6 && (text.charAt(position) == '+' || text.charAt(position) == '-') && text.charAt(position + 3) == ':')
+		{
+			var offsetHours = digits(text, position + 1, position + 3);
+			var offsetMinutes = digits(text, position + 4, position + 6);
+			if (offsetHours < 0 || offsetHours > 18 || offsetMinutes < 0 || offsetMinutes > 59)
+			{
+				return parseSlow(text);
+			}
+			offsetSeconds = offsetHours * 3600 + offsetMinutes * 60;
+			if (text.charAt(position) == '-')
+			{
+				offsetSeconds = -offsetSeconds;
+			}
+		}
+		else
+		{
+			return parseSlow(text);
+		}
+
+		var epochSecond = toEpochDay(year, month, day) * 86_400L + hour * 3600L + minute * 60L + second - offsetSeconds;
+		return Instant.ofEpochSecond(epochSecond, nanos);
+	}
+
+	private static Instant parseSlow(String text)
+	{
+		return DateTimeFormatter.ISO_OFFSET_DATE_TIME.parse(text, Instant::from);
+	}
+
+	private static int digits(String text, int start, int end)
+	{
+		var value = 0;
+		for (var i = start; i < end; i++)
+		{
+			var c = text.charAt(i);
+			if (!isDigit(c))
+			{
+				return -1;
+			}
+			value = value * 10 + (c - '0');
+		}
+		return value;
+	}
+
+	private static boolean isDigit(char c)
+	{
+		return c >= '0' && c <= '9';
+	}
+
+	private static boolean isLeapYear(long year)
+	{
+		return (year & 3) == 0 && (year % 100 != 0 || year % 400 == 0);
+	}
+
+	/**
+	 * Same as LocalDate.toEpochDay() but without creating a LocalDate.
+	 */
+	private static long toEpochDay(long year, long month, long day)
+	{
+		var total = 365 * year + (year + 3) / 4 - (year + 99) / 100 + (year + 399) / 400;
+		total += (367 * month - 362) / 12;
+		total += day - 1;
+		if (month > 2)
+		{
+			total--;
+			if (!isLeapYear(year))
+			{
+				total--;
+			}
+		}
+		return total - DAYS_0000_TO_1970;
+	}
+}
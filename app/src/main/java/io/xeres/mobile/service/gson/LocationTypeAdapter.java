@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2025 by David Gerber - https://zapek.com
+ *
+ * This file is part of Xeres-Android.
+ *
+ * Xeres-Android is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Xeres-Android is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Xeres-Android.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.xeres.mobile.service.gson;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+
+import io.xeres.mobile.service.json.Availability;
+import io.xeres.mobile.service.json.Location;
+
+public class LocationTypeAdapter extends TypeAdapter<Location>
+{
+	@Override
+	public void write(JsonWriter out, Location location) throws IOException
+	{
+		if (location == null)
+		{
+			out.nullValue();
+			return;
+		}
+		out.beginObject();
+		out.name("id");
+		out.value(location.getId());
+		out.name("name");
+		out.value(location.getName());
+		out.name("locationIdentifier");
+		GsonStreams.writeBytes(out, location.getLocationIdentifier());
+		out.name("connected");
+		out.value(location.isConnected());
+		out.name("lastConnected");
+		GsonStreams.writeInstant(out, location.getLastConnected());
+		out.name("availability");
+		GsonStreams.writeEnum(out, location.getAvailability());
+		out.name("version");
+		out.value(location.getVersion());
+		out.endObject();
+	}
+
+	@Override
+	public Location read(JsonReader in) throws IOException
+	{
+		if (GsonStreams.skipNull(in))
+		{
+			return null;
+		}
+		var location = new Location();
+		in.beginObject();
+		while (in.hasNext())
+		{
+			switch (in.nextName())
+			{
+				case "id":
+					location.setId(in.nextLong());
+					break;
+				case "name":
+					location.setName(GsonStreams.nextString(in));
+					break;
+				case "locationIdentifier":
+					location.setLocationIdentifier(GsonStreams.nextBytes(in));
+					break;
+				case "connected":
+					location.setConnected(in.nextBoolean());
+					break;
+				case "lastConnected":
+					location.setLastConnected(GsonStreams.nextInstant(in));
+					break;
+				case "availability":
+					location.setAvailability(GsonStreams.nextEnum(in, Availability.class));
+					break;
+				case "version":
+					location.setVersion(GsonStreams.nextString(in));
+					break;
+				default:
+					in.skipValue();
+					break;
+			}
+		}
+		in.endObject();
+		return location;
+	}
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2025 by David Gerber - https://zapek.com
+ *
+ * This file is part of Xeres-Android.
+ *
+ * Xeres-Android is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Xeres-Android is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Xeres-Android.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.xeres.mobile.service.gson;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import io.xeres.mobile.service.json.Location;
+import io.xeres.mobile.service.json.Profile;
+import io.xeres.mobile.service.json.Trust;
+
+public class ProfileTypeAdapter extends TypeAdapter<Profile>
+{
+	private final LocationTypeAdapter locationTypeAdapter = new LocationTypeAdapter();
+
+	@Override
+	public void write(JsonWriter out, Profile profile) throws IOException
+	{
+		if (profile == null)
+		{
+			out.nullValue();
+			return;
+		}
+		out.beginObject();
+		out.name("id");
+		out.value(profile.getId());
+		out.name("name");
+		out.value(profile.getName());
+		out.name("pgpIdentifier");
+		out.value(profile.getPgpIdentifier());
+		out.name("pgpFingerprint");
+		GsonStreams.writeBytes(out, profile.getPgpFingerprint());
+		out.name("created");
+		GsonStreams.writeInstant(out, profile.getCreated());
+		out.name("accepted");
+		out.value(profile.isAccepted());
+		out.name("trust");
+		GsonStreams.writeEnum(out, profile.getTrust());
+		out.name("locations");
+		writeLocations(out, profile.getLocations());
+		out.endObject();
+	}
+
+	@Override
+	public Profile read(JsonReader in) throws IOException
+	{
+		if (GsonStreams.skipNull(in))
+		{
+			return null;
+		}
+		var profile = new Profile();
+		in.beginObject();
+		while (in.hasNext())
+		{
+			switch (in.nextName())
+			{
+				case "id":
+					profile.setId(in.nextLong());
+					break;
+				case "name":
+					profile.setName(GsonStreams.nextString(in));
+					break;
+				case "pgpIdentifier":
+					profile.setPgpIdentifier(GsonStreams.nextString(in));
+					break;
+				case "pgpFingerprint":
+					profile.setPgpFingerprint(GsonStreams.nextBytes(in));
+					break;
+				case "created":
+					profile.setCreated(GsonStreams.nextInstant(in));
+					break;
+				case "accepted":
+					profile.setAccepted(in.nextBoolean());
+					break;
+				case "trust":
+					profile.setTrust(GsonStreams.nextEnum(in, Trust.class));
+					break;
+				case "locations":
+					profile.setLocations(readLocations(in));
+					break;
+				default:
+					in.skipValue();
+					break;
+			}
+		}
+		in.endObject();
+		return profile;
+	}
+
+	private List<Location> readLocations(JsonReader in) throws IOException
+	{
+		if (GsonStreams.skipNull(in))
+		{
+			return null;
+		}
+		var locations = new ArrayList<Location>();
+		in.beginArray();
+		while (in.hasNext())
+		{
+			locations.add(locationTypeAdapter.read(in));
+		}
+		in.endArray();
+		return locations;
+	}
+
+	private void writeLocations(JsonWriter out, List<Location> locations) throws IOException
+	{
+		if (locations == null)
+		{
+			out.nullValue();
+			return;
+		}
+		out.beginArray();
+		for (var location : locations)
+		{
+			locationTypeAdapter.write(out, location);
+		}
+		out.endArray();
+	}
+}
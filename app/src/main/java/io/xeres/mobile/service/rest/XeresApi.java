@@ -19,6 +19,7 @@
 
 package io.xeres.mobile.service.rest;
 
+import java.time.Instant;
 import java.util.List;
 
 import io.xeres.mobile.service.json.ChatBacklog;
@@ -51,10 +52,10 @@ public interface XeresApi
 	Call<Location> findLocationById(@Path("id") long id);
 
 	@GET("chat/chats/{id}/messages")
-	Call<List<ChatBacklog>> getChatMessages(@Path("id") long id);
+	Call<List<ChatBacklog>> getChatMessages(@Path("id") long id, @Query("from") Instant from, @Query("before") Instant before, @Query("maxLines") Integer maxLines);
 
 	@GET("chat/rooms/{id}/messages")
-	Call<List<ChatRoomBacklog>> getChatRoomMessages(@Path("id") long id);
+	Call<List<ChatRoomBacklog>> getChatRoomMessages(@Path("id") long id, @Query("from") Instant from, @Query("before") Instant before, @Query("maxLines") Integer maxLines);
 
 	@GET("contacts")
 	Call<List<Contact>> getContacts();
@@ -0,0 +1,221 @@
+/*
+ * Copyright (c) 2025 by David Gerber - https://zapek.com
+ *
+ * This file is part of Xeres-Android.
+ *
+ * Xeres-Android is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Xeres-Android is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Xeres-Android.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.xeres.mobile.service.stomp;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.function.Consumer;
+
+import okhttp3.OkHttpClient;
+import ua.naiksoftware.stomp.client.StompClient;
+import ua.naiksoftware.stomp.client.StompMessage;
+
+/**
+ * Sends big messages (inline images) over their own STOMP connection, one after the other, so
+ * that the main connection stays free for text and typing notifications. The connection is only
+ * open while there's something to send.
+ * <p>
+ * To keep a conversation in order, the messages sent to a destination that still has media
+ * pending have to go through here too, see {@link #hasPending(String)}. A message that fails
+ * isn't sent again since it might have gone through already. If the connection can't be made,
+ * the messages are given back to be sent on the main connection.
+ * All methods must be called from the main thread.
+ */
+public class MediaSender
+{
+	private static final String TAG = "MediaSender";
+
+	private static final int RETRY_DELAY = 1000;
+	private static final int MAXIMUM_CONNECTION_WAIT = 15_000;
+
+	private static class Pending
+	{
+		private final String destinationId;
+		private final StompMessage stompMessage;
+
+		private Pending(String destinationId, StompMessage stompMessage)
+		{
+			this.destinationId = destinationId;
+			this.stompMessage = stompMessage;
+		}
+	}
+
+	private final Handler handler = new Handler(Looper.getMainLooper());
+	private final Runnable flushRunnable = this::flush;
+	private final Deque<Pending> queue = new ArrayDeque<>();
+	private final String url;
+	private final OkHttpClient okHttpClient;
+	private final Consumer<StompMessage> fallback;
+
+	private StompConnection stompConnection;
+	private long connectionStart;
+	private boolean sending;
+
+	/**
+	 * Creates a sender.
+	 *
+	 * @param url          the URL of the STOMP endpoint
+	 * @param okHttpClient the client to connect with
+	 * @param fallback     sends a message on the main connection, used when this one can't be made
+	 */
+	public MediaSender(String url, OkHttpClient okHttpClient, Consumer<StompMessage> fallback)
+	{
+		this.url = url;
+		this.okHttpClient = okHttpClient;
+		this.fallback = fallback;
+	}
+
+	/**
+	 * Queues a message.
+	 *
+	 * @param destinationId the destination of the message, to keep its conversation in order
+	 * @param stompMessage  the message
+	 */
+	public void send(String destinationId, StompMessage stompMessage)
+	{
+		queue.addLast(new Pending(destinationId, stompMessage));
+		if (stompConnection == null)
+		{
+			connectionStart = SystemClock.elapsedRealtime();
+			stompConnection = new StompConnection(url, okHttpClient, new StompConnection.Listener()
+			{
+				@Override
+				public void onClientCreated(StompClient stompClient)
+				{
+					// Nothing to subscribe to, this connection only sends
+				}
+
+				@Override
+				public void onReconnected()
+				{
+					flush();
+				}
+			});
+			stompConnection.connect();
+		}
+		flush();
+	}
+
+	/**
+	 * Tells if messages to a destination are waiting to be sent. If so, the next messages
+	 * to that destination must be given to {@link #send(String, StompMessage)} as well.
+	 */
+	public boolean hasPending(String destinationId)
+	{
+		for (var pending : queue)
+		{
+			if (pending.destinationId.equals(destinationId))
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Closes the connection. The messages not sent yet are dropped.
+	 */
+	public void close()
+	{
+		handler.removeCallbacks(flushRunnable);
+		queue.clear();
+		sending = false;
+		disconnect();
+	}
+
+	public int getPendingCount()
+	{
+		return queue.size();
+	}
+
+	private void flush()
+	{
+		handler.removeCallbacks(flushRunnable);
+		if (sending || queue.isEmpty() || stompConnection == null)
+		{
+			return;
+		}
+		var stompClient = stompConnection.getStompClient();
+		if (stompClient == null || !stompClient.isConnected())
+		{
+			if (SystemClock.elapsedRealtime() - connectionStart > MAXIMUM_CONNECTION_WAIT)
+			{
+				giveBack();
+				return;
+			}
+			handler.postDelayed(flushRunnable, RETRY_DELAY);
+			return;
+		}
+		sending = true;
+		var pending = queue.peekFirst();
+		Log.d(TAG, "Sending media message, " + queue.size() + " pending");
+		stompClient.send(pending.stompMessage).subscribe(() -> handler.post(() -> onDone(pending)),
+				throwable -> handler.post(() -> {
+					Log.e(TAG, "Error while sending media, not sending it again in case it went through", throwable);
+					onDone(pending);
+				}));
+	}
+
+	private void onDone(Pending pending)
+	{
+		if (queue.peekFirst() != pending)
+		{
+			return; // Closed in between
+		}
+		queue.removeFirst();
+		sending = false;
+		connectionStart = SystemClock.elapsedRealtime(); // The wait counts from the last message that went out
+		if (queue.isEmpty())
+		{
+			disconnect();
+		}
+		else
+		{
+			flush();
+		}
+	}
+
+	/**
+	 * Sends everything on the main connection, in order, since this one couldn't be made.
+	 */
+	private void giveBack()
+	{
+		Log.w(TAG, "Media connection not available, sending " + queue.size() + " messages on the main connection");
+		while (!queue.isEmpty())
+		{
+			fallback.accept(queue.removeFirst().stompMessage);
+		}
+		disconnect();
+	}
+
+	private void disconnect()
+	{
+		if (stompConnection != null)
+		{
+			stompConnection.disconnect();
+			stompConnection = null;
+		}
+	}
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright (c) 2025 by David Gerber - https://zapek.com
+ *
+ * This file is part of Xeres-Android.
+ *
+ * Xeres-Android is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Xeres-Android is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Xeres-Android.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.xeres.mobile.service.stomp;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.List;
+import java.util.Random;
+
+import okhttp3.OkHttpClient;
+import rx.Subscription;
+import ua.naiksoftware.stomp.LifecycleEvent;
+import ua.naiksoftware.stomp.Stomp;
+import ua.naiksoftware.stomp.StompHeader;
+import ua.naiksoftware.stomp.client.StompClient;
+
+/**
+ * A STOMP connection that comes back by itself. When the socket is lost, a new client is
+ * created after a jittered exponential backoff. All methods must be called from the main thread.
+ */
+public class StompConnection
+{
+	private static final String TAG = "StompConnection";
+
+	private static final int MINIMUM_DELAY = 1000;
+	private static final int MAXIMUM_DELAY = 60_000;
+
+	public interface Listener
+	{
+		/**
+		 * Called when a new client is created. Subscriptions have to be done again on it.
+		 *
+		 * @param stompClient the new client
+		 */
+		void onClientCreated(StompClient stompClient);
+
+		/**
+		 * Called when the connection is back after it was lost.
+		 */
+		void onReconnected();
+	}
+
+	private final Handler handler = new Handler(Looper.getMainLooper());
+	private final Random random = new Random();
+	private final Runnable reconnectRunnable = this::reconnect;
+	private final String url;
+	private final OkHttpClient okHttpClient;
+	private final Listener listener;
+
+	private StompClient stompClient;
+	private Subscription lifecycleSubscription;
+	private boolean closed;
+	private boolean reconnectPending;
+	private int attempts;
+	private long lostTime;
+
+	private int reconnectCount;
+	private long lastReconnectLatency;
+
+	public StompConnection(String url, OkHttpClient okHttpClient, Listener listener)
+	{
+		this.url = url;
+		this.okHttpClient = okHttpClient;
+		this.listener = listener;
+	}
+
+	public void connect()
+	{
+		closed = false;
+		open();
+	}
+
+	public void disconnect()
+	{
+		closed = true;
+		handler.removeCallbacks(reconnectRunnable);
+		reconnectPending = false;
+		release();
+	}
+
+	public StompClient getStompClient()
+	{
+		return stompClient;
+	}
+
+	/**
+	 * Gets the number of times the connection came back.
+	 *
+	 * @return the number of reconnections
+	 */
+	public int getReconnectCount()
+	{
+		return reconnectCount;
+	}
+
+	/**
+	 * Gets the time between the loss of the connection and its return, the last time it happened.
+	 *
+	 * @return the latency in milliseconds
+	 */
+	public long getLastReconnectLatency()
+	{
+		return lastReconnectLatency;
+	}
+
+	private void open()
+	{
+		var client = Stomp.over(Stomp.ConnectionProvider.OKHTTP, url, null, okHttpClient);
+		stompClient = client;
+		lifecycleSubscription = client.lifecycle()
+				.subscribe(lifecycleEvent -> handler.post(() -> onLifecycleEvent(client, lifecycleEvent)),
+						throwable -> Log.e(TAG, "Lifecycle error: ", throwable));
+		client.connect(List.of(new StompHeader("accept-version", "1.1,1.0"))); // The header seems to be missing somehow
+		listener.onClientCreated(client);
+	}
+
+	private void release()
+	{
+		if (lifecycleSubscription != null)
+		{
+			lifecycleSubscription.unsubscribe();
+			lifecycleSubscription = null;
+		}
+		if (stompClient != null)
+		{
+			if (stompClient.isConnected())
+			{
+				stompClient.disconnect();
+			}
+			stompClient = null;
+		}
+	}
+
+	private void onLifecycleEvent(StompClient client, LifecycleEvent lifecycleEvent)
+	{
+		if (closed || client != stompClient)
+		{
+			return;
+		}
+
+		switch (lifecycleEvent.getType())
+		{
+			case OPENED:
+				Log.d(TAG, "Stomp client connected");
+				attempts = 0;
+				if (lostTime != 0L)
+				{
+					reconnectCount++;
+					lastReconnectLatency = SystemClock.elapsedRealtime() - lostTime;
+					lostTime = 0L;
+					Log.d(TAG, "Reconnected after " + lastReconnectLatency + " ms (reconnections: " + reconnectCount + ")");
+					listener.onReconnected();
+				}
+				break;
+
+			case ERROR:
+			case CLOSED:
+				Log.d(TAG, "Connection lost: " + lifecycleEvent.getType(), lifecycleEvent.getException());
+				if (lostTime == 0L)
+				{
+					lostTime = SystemClock.elapsedRealtime();
+				}
+				scheduleReconnect();
+				break;
+		}
+	}
+
+	private void scheduleReconnect()
+	{
+		if (reconnectPending)
+		{
+			return;
+		}
+		// Equal jitter: half of the delay is fixed, the other half random so that clients don't come back all at once
+		var ceiling = Math.min(MAXIMUM_DELAY, MINIMUM_DELAY << Math.min(attempts, 16));
+		var delay = ceiling / 2 + random.nextInt(ceiling / 2 + 1);
+		attempts++;
+		reconnectPending = true;
+		Log.d(TAG, "Reconnecting in " + delay + " ms (attempt " + attempts + ")");
+		handler.postDelayed(reconnectRunnable, delay);
+	}
+
+	private void reconnect()
+	{
+		reconnectPending = false;
+		release();
+		open();
+	}
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) 2025 by David Gerber - https://zapek.com
+ *
+ * This file is part of Xeres-Android.
+ *
+ * Xeres-Android is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Xeres-Android is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Xeres-Android.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.xeres.mobile.service.stomp;
+
+import android.util.Log;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import rx.Subscription;
+import ua.naiksoftware.stomp.client.StompClient;
+import ua.naiksoftware.stomp.client.StompMessage;
+
+/**
+ * Keeps one subscription per topic and routes the incoming frames to the listeners
+ * of their destination, so that the headers are only looked at once per frame.
+ */
+public class StompDispatcher
+{
+	private static final String TAG = "StompDispatcher";
+
+	private static final String MESSAGE_TYPE = "messageType";
+	private static final String DESTINATION_ID = "destinationId";
+
+	/**
+	 * Destination to get all the frames of a topic.
+	 */
+	public static final String ALL_DESTINATIONS = "*";
+
+	public interface MessageListener
+	{
+		/**
+		 * Called for each frame sent to the destination. This is not called
+		 * from the main thread.
+		 *
+		 * @param messageType  the type of the message, can be null
+		 * @param stompMessage the message
+		 */
+		void onMessage(String messageType, StompMessage stompMessage);
+
+		/**
+		 * Called from the main thread when the connection is back after it was lost. Messages
+		 * sent in between are missing and must be fetched again.
+		 */
+		default void onReconnected()
+		{
+		}
+	}
+
+	private static class Route
+	{
+		private final Map<String, CopyOnWriteArrayList<MessageListener>> listeners = new ConcurrentHashMap<>();
+		private Subscription subscription;
+	}
+
+	private final Map<String, Route> routes = new ConcurrentHashMap<>();
+	private StompClient stompClient;
+
+	/**
+	 * Sets the client to subscribe with. The existing topics are subscribed again.
+	 *
+	 * @param stompClient the STOMP client
+	 */
+	public synchronized void setStompClient(StompClient stompClient)
+	{
+		this.stompClient = stompClient;
+		routes.forEach((topic, route) -> {
+			unsubscribe(route);
+			subscribe(topic, route);
+		});
+	}
+
+	/**
+	 * Adds a listener. Adding the same listener to the same destination again does nothing.
+	 *
+	 * @param topic         the topic
+	 * @param destinationId the destination, or {@link #ALL_DESTINATIONS}
+	 * @param listener      the listener
+	 */
+	public synchronized void addListener(String topic, String destinationId, MessageListener listener)
+	{
+		var route = routes.get(topic);
+		if (route == null)
+		{
+			route = new Route();
+			routes.put(topic, route);
+			subscribe(topic, route);
+		}
+		route.listeners.computeIfAbsent(destinationId, key -> new CopyOnWriteArrayList<>()).addIfAbsent(listener);
+	}
+
+	public synchronized void removeListener(String topic, String destinationId, MessageListener listener)
+	{
+		var route = routes.get(topic);
+		if (route == null)
+		{
+			return;
+		}
+		var listeners = route.listeners.get(destinationId);
+		if (listeners != null)
+		{
+			listeners.remove(listener);
+			if (listeners.isEmpty())
+			{
+				route.listeners.remove(destinationId);
+			}
+		}
+		if (route.listeners.isEmpty())
+		{
+			unsubscribe(route);
+			routes.remove(topic);
+		}
+	}
+
+	public void notifyReconnected()
+	{
+		routes.values().forEach(route -> route.listeners.values().forEach(listeners -> listeners.forEach(MessageListener::onReconnected)));
+	}
+
+	private void subscribe(String topic, Route route)
+	{
+		if (stompClient == null)
+		{
+			return;
+		}
+		route.subscription = stompClient.topic(topic)
+				.subscribe(stompMessage -> dispatch(route, stompMessage),
+						throwable -> Log.e(TAG, "Error on topic " + topic + ": ", throwable));
+	}
+
+	private static void unsubscribe(Route route)
+	{
+		if (route.subscription != null)
+		{
+			route.subscription.unsubscribe();
+			route.subscription = null;
+		}
+	}
+
+	private static void dispatch(Route route, StompMessage stompMessage)
+	{
+		var destinationId = stompMessage.findHeader(DESTINATION_ID);
+		var listeners = destinationId != null ? route.listeners.get(destinationId) : null;
+		var allListeners = route.listeners.get(ALL_DESTINATIONS);
+		if (listeners == null && allListeners == null)
+		{
+			return;
+		}
+
+		var messageType = stompMessage.findHeader(MESSAGE_TYPE);
+		deliver(listeners, messageType, stompMessage);
+		deliver(allListeners, messageType, stompMessage);
+	}
+
+	private static void deliver(List<MessageListener> listeners, String messageType, StompMessage stompMessage)
+	{
+		if (listeners == null)
+		{
+			return;
+		}
+		for (var listener : listeners)
+		{
+			listener.onMessage(messageType, stompMessage);
+		}
+	}
+}
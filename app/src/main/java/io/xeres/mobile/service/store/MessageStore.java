@@ -0,0 +1,278 @@
+/*
+ * Copyright (c) 2025 by David Gerber - https://zapek.com
+ *
+ * This file is part of Xeres-Android.
+ *
+ * Xeres-Android is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Xeres-Android is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Xeres-Android.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.xeres.mobile.service.store;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import io.xeres.mobile.service.json.ChatBacklog;
+import io.xeres.mobile.service.json.ChatRoomBacklog;
+import io.xeres.mobile.service.json.GxsId;
+
+/**
+ * On-device copy of the chat backlogs, so that opening a conversation doesn't
+ * need to download its whole history again.
+ * <p>
+ * Only messages coming from the backlog endpoints are stored because they carry the
+ * server's timestamps, which are used to only fetch what's newer on the next sync.
+ * The stored messages are always a contiguous range of the conversation's history.
+ * A message that is already stored is ignored, so that a sync can overlap with what's stored.
+ * This class does disk I/O, don't call it from the main thread.
+ */
+public class MessageStore extends SQLiteOpenHelper
+{
+	private static final String DATABASE_NAME = "messages.db";
+	private static final int DATABASE_VERSION = 3;
+
+	private static final String TABLE_CHAT = "chat_backlog";
+	private static final String TABLE_CHAT_ROOM = "chat_room_backlog";
+
+	public MessageStore(Context context)
+	{
+		super(context, DATABASE_NAME, null, DATABASE_VERSION);
+	}
+
+	@Override
+	public void onCreate(SQLiteDatabase db)
+	{
+		// Duplicates are found with the hash of the message because a message can be a big inline image
+		db.execSQL("CREATE TABLE " + TABLE_CHAT + " (_id INTEGER PRIMARY KEY AUTOINCREMENT, location_id INTEGER NOT NULL, created INTEGER NOT NULL, own INTEGER NOT NULL, message TEXT, message_hash BLOB NOT NULL)");
+		db.execSQL("CREATE UNIQUE INDEX " + TABLE_CHAT + "_location_created ON " + TABLE_CHAT + " (location_id, created, own, message_hash)");
+		db.execSQL("CREATE TABLE " + TABLE_CHAT_ROOM + " (_id INTEGER PRIMARY KEY AUTOINCREMENT, room_id INTEGER NOT NULL, created INTEGER NOT NULL, gxs_id BLOB, nickname TEXT, message TEXT, message_hash BLOB NOT NULL)");
+		// NULLs are all different in an index
+		db.execSQL("CREATE UNIQUE INDEX " + TABLE_CHAT_ROOM + "_room_created ON " + TABLE_CHAT_ROOM + " (room_id, created, ifnull(nickname, ''), message_hash)");
+	}
+
+	@Override
+	public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion)
+	{
+		// It's only a cache, the server has everything
+		db.execSQL("DROP TABLE IF EXISTS " + TABLE_CHAT);
+		db.execSQL("DROP TABLE IF EXISTS " + TABLE_CHAT_ROOM);
+		onCreate(db);
+	}
+
+	/**
+	 * Gets the most recent messages of a private chat.
+	 *
+	 * @param locationId the location
+	 * @param limit      the maximum number of messages
+	 * @return the messages, sorted by creation time
+	 */
+	public List<ChatBacklog> getLatestChatBacklogs(long locationId, int limit)
+	{
+		return getChatBacklogs("location_id = ?", new String[]{String.valueOf(locationId)}, true, limit);
+	}
+
+	public List<ChatBacklog> getChatBacklogsBefore(long locationId, Instant before, int limit)
+	{
+		return getChatBacklogs("location_id = ? AND created < ?", new String[]{String.valueOf(locationId), String.valueOf(before.toEpochMilli())}, true, limit);
+	}
+
+	public List<ChatBacklog> getChatBacklogsAfter(long locationId, Instant after, int limit)
+	{
+		return getChatBacklogs("location_id = ? AND created > ?", new String[]{String.valueOf(locationId), String.valueOf(after.toEpochMilli())}, false, limit);
+	}
+
+	private List<ChatBacklog> getChatBacklogs(String selection, String[] selectionArgs, boolean fromEnd, int limit)
+	{
+		var backlogs = new ArrayList<ChatBacklog>();
+
+		try (var cursor = getReadableDatabase().query(TABLE_CHAT,
+				new String[]{"created", "own", "message"},
+				selection, selectionArgs,
+				null, null, fromEnd ? "created DESC, _id DESC" : "created, _id", String.valueOf(limit)))
+		{
+			while (cursor.moveToNext())
+			{
+				var backlog = new ChatBacklog();
+				backlog.setCreated(Instant.ofEpochMilli(cursor.getLong(0)));
+				backlog.setOwn(cursor.getInt(1) != 0);
+				backlog.setMessage(cursor.getString(2));
+				backlogs.add(backlog);
+			}
+		}
+		if (fromEnd)
+		{
+			Collections.reverse(backlogs);
+		}
+		return backlogs;
+	}
+
+	/**
+	 * Adds messages, the ones that are already stored are skipped.
+	 *
+	 * @return the messages that were added
+	 */
+	public List<ChatBacklog> addChatBacklogs(long locationId, List<ChatBacklog> backlogs)
+	{
+		var added = new ArrayList<ChatBacklog>(backlogs.size());
+		var db = getWritableDatabase();
+		db.beginTransaction();
+		try
+		{
+			var values = new ContentValues();
+			for (var backlog : backlogs)
+			{
+				values.clear();
+				values.put("location_id", locationId);
+				values.put("created", backlog.getCreated().toEpochMilli());
+				values.put("own", backlog.isOwn() ? 1 : 0);
+				values.put("message", backlog.getMessage());
+				values.put("message_hash", hash(backlog.getMessage()));
+				if (db.insertWithOnConflict(TABLE_CHAT, null, values, SQLiteDatabase.CONFLICT_IGNORE) != -1)
+				{
+					added.add(backlog);
+				}
+			}
+			db.setTransactionSuccessful();
+		}
+		finally
+		{
+			db.endTransaction();
+		}
+		return added;
+	}
+
+	/**
+	 * Gets the most recent messages of a chat room.
+	 *
+	 * @param roomId the room
+	 * @param limit  the maximum number of messages
+	 * @return the messages, sorted by creation time
+	 */
+	public List<ChatRoomBacklog> getLatestChatRoomBacklogs(long roomId, int limit)
+	{
+		return getChatRoomBacklogs("room_id = ?", new String[]{String.valueOf(roomId)}, true, limit);
+	}
+
+	public List<ChatRoomBacklog> getChatRoomBacklogsBefore(long roomId, Instant before, int limit)
+	{
+		return getChatRoomBacklogs("room_id = ? AND created < ?", new String[]{String.valueOf(roomId), String.valueOf(before.toEpochMilli())}, true, limit);
+	}
+
+	public List<ChatRoomBacklog> getChatRoomBacklogsAfter(long roomId, Instant after, int limit)
+	{
+		return getChatRoomBacklogs("room_id = ? AND created > ?", new String[]{String.valueOf(roomId), String.valueOf(after.toEpochMilli())}, false, limit);
+	}
+
+	private List<ChatRoomBacklog> getChatRoomBacklogs(String selection, String[] selectionArgs, boolean fromEnd, int limit)
+	{
+		var backlogs = new ArrayList<ChatRoomBacklog>();
+
+		try (var cursor = getReadableDatabase().query(TABLE_CHAT_ROOM,
+				new String[]{"created", "gxs_id", "nickname", "message"},
+				selection, selectionArgs,
+				null, null, fromEnd ? "created DESC, _id DESC" : "created, _id", String.valueOf(limit)))
+		{
+			while (cursor.moveToNext())
+			{
+				var backlog = new ChatRoomBacklog();
+				backlog.setCreated(Instant.ofEpochMilli(cursor.getLong(0)));
+				if (!cursor.isNull(1))
+				{
+					var gxsId = new GxsId();
+					gxsId.setBytes(cursor.getBlob(1));
+					backlog.setGxsId(gxsId);
+				}
+				backlog.setNickname(cursor.getString(2));
+				backlog.setMessage(cursor.getString(3));
+				backlogs.add(backlog);
+			}
+		}
+		if (fromEnd)
+		{
+			Collections.reverse(backlogs);
+		}
+		return backlogs;
+	}
+
+	/**
+	 * Adds messages, the ones that are already stored are skipped.
+	 *
+	 * @return the messages that were added
+	 */
+	public List<ChatRoomBacklog> addChatRoomBacklogs(long roomId, List<ChatRoomBacklog> backlogs)
+	{
+		var added = new ArrayList<ChatRoomBacklog>(backlogs.size());
+		var db = getWritableDatabase();
+		db.beginTransaction();
+		try
+		{
+			var values = new ContentValues();
+			for (var backlog : backlogs)
+			{
+				values.clear();
+				values.put("room_id", roomId);
+				values.put("created", backlog.getCreated().toEpochMilli());
+				if (backlog.getGxsId() != null)
+				{
+					values.put("gxs_id", backlog.getGxsId().getBytes());
+				}
+				values.put("nickname", backlog.getNickname());
+				values.put("message", backlog.getMessage());
+				values.put("message_hash", hash(backlog.getMessage()));
+				if (db.insertWithOnConflict(TABLE_CHAT_ROOM, null, values, SQLiteDatabase.CONFLICT_IGNORE) != -1)
+				{
+					added.add(backlog);
+				}
+			}
+			db.setTransactionSuccessful();
+		}
+		finally
+		{
+			db.endTransaction();
+		}
+		return added;
+	}
+
+	private static byte[] hash(String message)
+	{
+		try
+		{
+			var digest = MessageDigest.getInstance("SHA-1");
+			return digest.digest(message != null ? message.getBytes(StandardCharsets.UTF_8) : new byte[0]);
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Removes all the stored messages.
+	 */
+	public void clear()
+	{
+		var db = getWritableDatabase();
+		db.delete(TABLE_CHAT, null, null);
+		db.delete(TABLE_CHAT_ROOM, null, null);
+	}
+}
@@ -23,22 +23,22 @@ import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
 import android.content.ServiceConnection;
-import android.graphics.Bitmap;
+import android.net.Uri;
 import android.os.Bundle;
 import android.os.IBinder;
-import android.provider.MediaStore;
 import android.text.Editable;
 import android.text.TextUtils;
 import android.text.TextWatcher;
-import android.util.Base64;
 import android.util.Log;
 import android.view.KeyEvent;
 import android.view.MenuItem;
 import android.widget.EditText;
 import android.widget.ImageButton;
 import android.widget.TextView;
+import android.widget.Toast;
 
 import androidx.activity.EdgeToEdge;
+import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.widget.Toolbar;
 import androidx.core.graphics.Insets;
@@ -47,25 +47,27 @@ import androidx.core.view.WindowInsetsCompat;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
-import java.io.ByteArrayOutputStream;
-import java.io.FileNotFoundException;
-import java.io.IOException;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.List;
 import java.util.Objects;
+import java.util.function.Consumer;
 
-import io.noties.markwon.Markwon;
 import io.noties.markwon.editor.MarkwonEditor;
-import io.noties.markwon.editor.MarkwonEditorTextWatcher;
 import io.xeres.mobile.R;
 import io.xeres.mobile.service.ConnectionService;
 import io.xeres.mobile.service.LocalBinder;
+import io.xeres.mobile.service.json.ChatBacklog;
 import io.xeres.mobile.service.json.ChatMessage;
-import io.xeres.mobile.util.BitmapUtils;
+import io.xeres.mobile.service.stomp.StompDispatcher;
+import io.xeres.mobile.util.AsyncEditorHighlighter;
+import io.xeres.mobile.util.BacklogWindow;
+import io.xeres.mobile.util.ChatProcessor;
 import io.xeres.mobile.util.Id;
+import io.xeres.mobile.util.ImageEncoder;
 import io.xeres.mobile.util.JsonUtils;
+import io.xeres.mobile.util.LiveMessagePipeline;
 import io.xeres.mobile.util.UiUtils;
-import rx.Subscription;
 import ua.naiksoftware.stomp.client.StompMessage;
 
 public class ChatActivity extends AppCompatActivity
@@ -73,6 +75,8 @@ public class ChatActivity extends AppCompatActivity
 	private static final String TAG = "ChatActivity";
 
 	private static final Duration TYPING_NOTIFICATION_DELAY = Duration.ofSeconds(5);
+	private static final int MAXIMUM_IMAGE_PIXELS = 800 * 600;
+	private static final int MAXIMUM_IMAGE_SIZE = 128 * 1024;
 
 	private ConnectionService connectionService;
 	private boolean bound;
@@ -80,11 +84,30 @@ public class ChatActivity extends AppCompatActivity
 	private long id;
 	private String locationIdentifier;
 	private String targetName;
-	private Subscription subscription;
+	private final StompDispatcher.MessageListener messageListener = new StompDispatcher.MessageListener()
+	{
+		@Override
+		public void onMessage(String messageType, StompMessage stompMessage)
+		{
+			onStompMessage(messageType, stompMessage);
+		}
+
+		@Override
+		public void onReconnected()
+		{
+			if (bound)
+			{
+				connectionService.catchUpChatBacklog(id, ChatActivity.this::addNewerBacklogs);
+			}
+		}
+	};
 
 	private ChatAdapter chatAdapter;
 
+	private LiveMessagePipeline<ChatProcessor.Prerendered<ChatBacklog>> liveMessagePipeline;
+
 	private String messageToSend;
+	private ImageEncoder imageEncoder;
 
 	private TextView typingView;
 
@@ -100,6 +123,8 @@ public class ChatActivity extends AppCompatActivity
 	protected void onCreate(Bundle savedInstanceState)
 	{
 		super.onCreate(savedInstanceState);
+
+		liveMessagePipeline = new LiveMessagePipeline<>(this::addIncomingLines);
 		EdgeToEdge.enable(this);
 		setContentView(R.layout.activity_chat);
 
@@ -118,6 +143,17 @@ public class ChatActivity extends AppCompatActivity
 		var layoutManager = new LinearLayoutManager(this);
 		layoutManager.setStackFromEnd(true);
 		recyclerView.setLayoutManager(layoutManager);
+		recyclerView.addOnScrollListener(new RecyclerView.OnScrollListener()
+		{
+			@Override
+			public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy)
+			{
+				if (chatAdapter != null)
+				{
+					chatAdapter.onScrolled(layoutManager.findFirstVisibleItemPosition(), layoutManager.findLastVisibleItemPosition());
+				}
+			}
+		});
 
 		typingView = findViewById(R.id.typing_view);
 
@@ -132,9 +168,7 @@ public class ChatActivity extends AppCompatActivity
 			return false;
 		});
 
-		Markwon markwon = Markwon.create(this);
-		MarkwonEditor editor = MarkwonEditor.create(markwon);
-		editText.addTextChangedListener(MarkwonEditorTextWatcher.withProcess(editor));
+		AsyncEditorHighlighter.attach(MarkwonEditor.create(ChatProcessor.getInstance(this).getMarkwon()), editText);
 		editText.addTextChangedListener(new TextWatcher()
 		{
 			@Override
@@ -171,28 +205,8 @@ public class ChatActivity extends AppCompatActivity
 		if (shareUri != null)
 		{
 			Log.d(TAG, "shareUri: " + shareUri);
-			try
-			{
-				var bitmap = BitmapUtils.getScaledBitmap(MediaStore.Images.Media.getBitmap(getContentResolver(), shareUri), 800 * 600);
-				bitmap = BitmapUtils.rotateBitmapIfNeeded(bitmap, BitmapUtils.getImageOrientation(getContentResolver(), shareUri));
-				var output = new ByteArrayOutputStream();
-				bitmap.compress(Bitmap.CompressFormat.JPEG, 70, output); // XXX: thread... and also limite the size
-
-				Log.d(TAG, "send size: " + output.size());
-
-				var imageString = Base64.encodeToString(output.toByteArray(), Base64.NO_WRAP);
-
-				messageToSend = "<img src=\"data:image/jpeg;base64," + imageString + "\"/>"; // XXX: we cannot use the send EditText because it has a limited size... we will have to delay the sending
-				intent.setData(null);
-			}
-			catch (FileNotFoundException e)
-			{
-				Log.e(TAG, "File not found: " + e.getMessage());
-			}
-			catch (IOException e)
-			{
-				Log.e(TAG, "I/O error: " + e.getMessage());
-			}
+			// Only cleared once sent, so that it is encoded again if the activity is recreated in between
+			encodeImage(shareUri);
 		}
 		else
 		{
@@ -248,11 +262,71 @@ public class ChatActivity extends AppCompatActivity
 		super.onStop();
 		if (bound)
 		{
+			connectionService.removeMessageListener(ConnectionService.CHAT_PRIVATE_TOPIC, locationIdentifier, messageListener);
 			unbindService(connection);
 			bound = false;
 		}
 	}
 
+	@Override
+	protected void onDestroy()
+	{
+		Log.d(TAG, "Live messages: " + liveMessagePipeline.getMessageCount() + " in " + liveMessagePipeline.getBatchCount() + " batches");
+		liveMessagePipeline.close();
+		if (imageEncoder != null)
+		{
+			imageEncoder.cancel();
+		}
+		super.onDestroy();
+	}
+
+	private void encodeImage(Uri uri)
+	{
+		imageEncoder = new ImageEncoder(getContentResolver(), MAXIMUM_IMAGE_PIXELS, MAXIMUM_IMAGE_SIZE, new ImageEncoder.Listener()
+		{
+			@Override
+			public void onProgress(int percent)
+			{
+				setSubtitle(getString(R.string.encoding_image, percent));
+			}
+
+			@Override
+			public void onEncoded(String message)
+			{
+				setSubtitle(null);
+				imageEncoder = null;
+				if (bound && chatAdapter != null)
+				{
+					connectionService.sendChatMessage(locationIdentifier, message);
+					getIntent().setData(null);
+				}
+				else
+				{
+					messageToSend = message; // Sent once the backlog is there, the shared image is kept until then in case the activity is recreated
+				}
+			}
+
+			@Override
+			public void onError()
+			{
+				setSubtitle(null);
+				imageEncoder = null;
+				getIntent().setData(null);
+				Toast.makeText(ChatActivity.this, R.string.encoding_image_failed, Toast.LENGTH_SHORT).show();
+			}
+		});
+		imageEncoder.encode(uri);
+	}
+
+	private void setSubtitle(String subtitle)
+	{
+		var actionBar = getSupportActionBar();
+		if (actionBar != null)
+		{
+			actionBar.setSubtitle(subtitle);
+		}
+	}
+
 	private void sendTypingNotificationIfNeeded()
 	{
 		var now = Instant.now();
@@ -263,6 +337,76 @@ public class ChatActivity extends AppCompatActivity
 		}
 	}
 
+	private void onStompMessage(String stompMessageType, StompMessage stompMessage)
+	{
+		var messageType = getMessageType(stompMessageType);
+
+		if (messageType == MessageType.TYPING_NOTIFICATION)
+		{
+			runOnUiThread(() -> {
+				typingView.setText(targetName + " is typing...");
+				typingView.postDelayed(() -> typingView.setText(""), 4000);
+			});
+		}
+		else if (messageType == MessageType.PRIVATE_MESSAGE)
+		{
+			liveMessagePipeline.submit(() -> {
+				var chatMessage = JsonUtils.GSON.fromJson(stompMessage.getPayload(), ChatMessage.class);
+				//Log.d(TAG, "message: " + chatMessage.getContent());
+				if (chatMessage.getContent() == null)
+				{
+					return null;
+				}
+				var line = new ChatBacklog(chatMessage.isOwn(), chatMessage.getContent());
+				return new ChatProcessor.Prerendered<>(line, chatAdapter.renderLine(ChatProcessor.getInstance(ChatActivity.this), line));
+			});
+		}
+	}
+
+	private void addIncomingLines(List<ChatProcessor.Prerendered<ChatBacklog>> incomingLines)
+	{
+		if (chatAdapter == null)
+		{
+			return;
+		}
+		RecyclerView recyclerView = findViewById(R.id.chat_recycler);
+		// One range insert and one scroll per batch, whatever its size
+		var atBottom = UiUtils.isAtBottom(recyclerView);
+		chatAdapter.addIncomingChatMessages(incomingLines);
+		if (atBottom)
+		{
+			UiUtils.scrollToBottom(recyclerView, chatAdapter);
+		}
+	}
+
+	private void addNewerBacklogs(List<ChatBacklog> newerBacklogs)
+	{
+		if (chatAdapter == null)
+		{
+			return;
+		}
+		RecyclerView recyclerView = findViewById(R.id.chat_recycler);
+		chatAdapter.addBacklogs(newerBacklogs);
+		UiUtils.scrollToBottomIfPossible(recyclerView, chatAdapter);
+	}
+
+	private MessageType getMessageType(String messageType)
+	{
+		if (messageType == null)
+		{
+			return MessageType.OTHER;
+		}
+		if (messageType.equals("CHAT_PRIVATE_MESSAGE"))
+		{
+			return MessageType.PRIVATE_MESSAGE;
+		}
+		else if (messageType.equals("CHAT_TYPING_NOTIFICATION"))
+		{
+			return MessageType.TYPING_NOTIFICATION;
+		}
+		return MessageType.OTHER;
+	}
+
 	private final ServiceConnection connection = new ServiceConnection()
 	{
 		@Override
@@ -273,88 +417,56 @@ public class ChatActivity extends AppCompatActivity
 			bound = true;
 
 			connectionService.getChatBacklog(id, chatBacklogs -> {
+				if (!bound)
+				{
+					return;
+				}
 				Log.d(TAG, "Getting backlogs from location " + id);
-				RecyclerView recyclerView = findViewById(R.id.chat_recycler);
-
-				var ownProfile = connectionService.getOwnProfile();
-				var ownName = ownProfile != null ? ownProfile.getName() : "Own";
-
-				chatAdapter = new ChatAdapter(ownName, targetName, chatBacklogs, connectionService);
-				recyclerView.setAdapter(chatAdapter);
-
-				subscription = connectionService.getMessages("/topic/chat/private")
-						.doOnNext(stompMessage -> {
-							var messageType = getMessageType(stompMessage);
-
-							if (!isForUs(stompMessage))
-							{
-								return;
-							}
-
-							if (messageType == MessageType.TYPING_NOTIFICATION)
-							{
-								typingView.setText(targetName + " is typing...");
-								typingView.postDelayed(() -> typingView.setText(""), 4000);
-							}
-							else if (messageType == MessageType.PRIVATE_MESSAGE)
-							{
-								var chatMessage = JsonUtils.GSON.fromJson(stompMessage.getPayload(), ChatMessage.class);
-								//Log.d(TAG, "message: " + chatMessage.getContent());
-								if (chatMessage.getContent() != null)
-								{
-									runOnUiThread(() -> {
-										chatAdapter.addIncomingChatMessage(chatMessage);
-										UiUtils.scrollToBottomIfPossible(recyclerView, chatAdapter);
-									});
-								}
-							}
-						})
-						.doOnError(throwable -> Log.e(TAG, "Error: ", throwable))
-						.subscribe();
+				if (chatAdapter != null)
+				{
+					// Coming back, only display the differences and keep the scroll position
+					chatAdapter.setBacklogs(chatBacklogs);
+				}
+				else
+				{
+					RecyclerView recyclerView = findViewById(R.id.chat_recycler);
+
+					var ownProfile = connectionService.getOwnProfile();
+					var ownName = ownProfile != null ? ownProfile.getName() : "Own";
+
+					chatAdapter = new ChatAdapter(ownName, targetName, chatBacklogs, connectionService);
+					chatAdapter.setPageLoader(new BacklogWindow.PageLoader<>()
+					{
+						@Override
+						public void loadOlder(ChatBacklog first, Consumer<List<ChatBacklog>> consumer)
+						{
+							connectionService.getOlderChatBacklog(id, first.getCreated(), consumer);
+						}
+
+						@Override
+						public void loadNewer(ChatBacklog last, Consumer<List<ChatBacklog>> consumer)
+						{
+							connectionService.getNewerChatBacklog(id, last.getCreated(), consumer);
+						}
+					});
+					recyclerView.setAdapter(chatAdapter);
+				}
+
+				connectionService.addMessageListener(ConnectionService.CHAT_PRIVATE_TOPIC, locationIdentifier, messageListener);
 
 				if (messageToSend != null)
 				{
 					connectionService.sendChatMessage(locationIdentifier, messageToSend);
 					messageToSend = null;
+					getIntent().setData(null);
 				}
-			});
-		}
-
-		private MessageType getMessageType(StompMessage stompMessage)
-		{
-			var messageType = stompMessage.findHeader("messageType");
-
-			if (messageType == null)
-			{
-				return MessageType.OTHER;
-			}
-			if (messageType.equals("CHAT_PRIVATE_MESSAGE"))
-			{
-				return MessageType.PRIVATE_MESSAGE;
-			}
-			else if (messageType.equals("CHAT_TYPING_NOTIFICATION"))
-			{
-				return MessageType.TYPING_NOTIFICATION;
-			}
-			return MessageType.OTHER;
-		}
-
-		private boolean isForUs(StompMessage stompMessage)
-		{
-			var destination = stompMessage.findHeader("destinationId");
-
-			return destination != null && destination.equals(locationIdentifier);
+			}, ChatActivity.this::addNewerBacklogs);
 		}
 
 		@Override
 		public void onServiceDisconnected(ComponentName name)
 		{
 			bound = false;
-
-			if (subscription != null)
-			{
-				subscription.unsubscribe();
-			}
 		}
 	};
 }
\ No newline at end of file
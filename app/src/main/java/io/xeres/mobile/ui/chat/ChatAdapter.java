@@ -27,16 +27,22 @@ import android.view.ViewGroup;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.WeakHashMap;
 
 import io.xeres.mobile.R;
 import io.xeres.mobile.service.json.ChatBacklog;
-import io.xeres.mobile.service.json.ChatMessage;
+import io.xeres.mobile.util.BacklogWindow;
+import io.xeres.mobile.util.ChatLinePrerenderer;
 import io.xeres.mobile.util.ChatProcessor;
 import io.xeres.mobile.view.AsyncImageView;
 
@@ -47,19 +53,39 @@ class ChatAdapter extends RecyclerView.Adapter<ChatAdapter.ViewHolder>
 
 	private final String ownName;
 	private final String targetName;
-	private final List<ChatBacklog> backlogs;
+	private final BacklogWindow<ChatBacklog> backlogs;
+	private final Map<ChatBacklog, ChatProcessor.RenderedLine> prerenderedLines = new WeakHashMap<>();
 	private final AsyncImageView.ImageInput imageInput;
 	private ChatProcessor chatProcessor;
+	private ChatLinePrerenderer<ChatBacklog> prerenderer;
 
 	private static final DateTimeFormatter TIME_DISPLAY = DateTimeFormatter.ofPattern("HH:mm")
 			.withLocale(Locale.ROOT)
 			.withZone(ZoneId.systemDefault());
 
+	/**
+	 * A live message and its synced version only differ by their creation time.
+	 */
+	private static final DiffUtil.ItemCallback<ChatBacklog> DIFF_CALLBACK = new DiffUtil.ItemCallback<>()
+	{
+		@Override
+		public boolean areItemsTheSame(@NonNull ChatBacklog oldItem, @NonNull ChatBacklog newItem)
+		{
+			return oldItem.isOwn() == newItem.isOwn() && Objects.equals(oldItem.getMessage(), newItem.getMessage());
+		}
+
+		@Override
+		public boolean areContentsTheSame(@NonNull ChatBacklog oldItem, @NonNull ChatBacklog newItem)
+		{
+			return Objects.equals(oldItem.getCreated(), newItem.getCreated());
+		}
+	};
+
 	public ChatAdapter(String ownName, String targetName, List<ChatBacklog> backlogs, AsyncImageView.ImageInput imageInput)
 	{
 		this.ownName = ownName;
 		this.targetName = targetName;
-		this.backlogs = backlogs;
+		this.backlogs = new BacklogWindow<>(this, backlogs, DIFF_CALLBACK);
 		this.imageInput = imageInput;
 	}
 
@@ -68,8 +94,19 @@ class ChatAdapter extends RecyclerView.Adapter<ChatAdapter.ViewHolder>
 	public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType)
 	{
 		var view = LayoutInflater.from(parent.getContext()).inflate(R.layout.chat_row_item, parent, false);
-		chatProcessor = new ChatProcessor(parent.getContext());
-		return new ViewHolder(view);
+		if (chatProcessor == null)
+		{
+			chatProcessor = ChatProcessor.getInstance(parent.getContext());
+		}
+		var viewHolder = new ViewHolder(view);
+		if (prerenderer == null)
+		{
+			prerenderer = new ChatLinePrerenderer<>(parent.getContext(), this::renderLine);
+			prerenderer.setTextMetricsParams(viewHolder.getTextView().getTextMetricsParams());
+			backlogs.setAddedItemsListener(prerenderer::prerender);
+			prerenderer.prerender(backlogs.getItems());
+		}
+		return viewHolder;
 	}
 
 	@SuppressLint("SetTextI18n")
@@ -88,16 +125,71 @@ class ChatAdapter extends RecyclerView.Adapter<ChatAdapter.ViewHolder>
 		return backlogs.size();
 	}
 
-	public void addIncomingChatMessage(ChatMessage chatMessage)
+	/**
+	 * Adds messages that were just received, already rendered.
+	 *
+	 * @param incomingLines the messages, in the order they arrived
+	 */
+	public void addIncomingChatMessages(List<ChatProcessor.Prerendered<ChatBacklog>> incomingLines)
+	{
+		var lines = new ArrayList<ChatBacklog>(incomingLines.size());
+		for (var incomingLine : incomingLines)
+		{
+			prerenderedLines.put(incomingLine.getItem(), incomingLine.getRenderedLine());
+			lines.add(incomingLine.getItem());
+		}
+		backlogs.addLive(lines);
+	}
+
+	/**
+	 * Adds messages fetched from the backlog. They replace the live messages received
+	 * in the meantime because those are part of the backlog too.
+	 *
+	 * @param newBacklogs the backlogs, sorted by creation time
+	 */
+	public void addBacklogs(List<ChatBacklog> newBacklogs)
+	{
+		backlogs.addSynced(newBacklogs);
+	}
+
+	/**
+	 * Replaces the backlogs, for example when they're fetched again. Only the differences are displayed again.
+	 *
+	 * @param newBacklogs the backlogs, sorted by creation time
+	 */
+	public void setBacklogs(List<ChatBacklog> newBacklogs)
 	{
-		backlogs.add(new ChatBacklog(chatMessage.isOwn(), chatMessage.getContent()));
-		notifyItemInserted(backlogs.size() - 1);
+		backlogs.replaceAll(newBacklogs);
+	}
+
+	public void setPageLoader(BacklogWindow.PageLoader<ChatBacklog> pageLoader)
+	{
+		backlogs.setPageLoader(pageLoader);
+	}
+
+	public void onScrolled(int firstVisible, int lastVisible)
+	{
+		backlogs.onScrolled(firstVisible, lastVisible);
 	}
 
 	private void processChatLine(ViewHolder holder, ChatBacklog line)
+	{
+		var renderedLine = prerenderedLines.get(line);
+		if (renderedLine != null)
+		{
+			chatProcessor.bindLine(renderedLine, holder.getTextView(), holder.getAsyncImageView());
+			return;
+		}
+		chatProcessor.bindLine(renderLine(chatProcessor, line), holder.getTextView(), holder.getAsyncImageView());
+	}
+
+	/**
+	 * Renders a line. Only reads immutable state, so it can be called outside the main thread.
+	 */
+	ChatProcessor.RenderedLine renderLine(ChatProcessor processor, ChatBacklog line)
 	{
 		var nickname = line.isOwn() ? ownName : targetName;
-		chatProcessor.processLine(nickname, nickname, line.getMessage(), line.isOwn(), holder.getTextView(), holder.getAsyncImageView());
+		return processor.renderLine(nickname, nickname, line.getMessage(), line.isOwn());
 	}
 
 	public static class ViewHolder extends RecyclerView.ViewHolder
@@ -29,6 +29,8 @@ import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.AbsListView;
+import android.widget.ExpandableListView;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -43,6 +45,7 @@ import java.util.Map;
 import java.util.stream.Collectors;
 
 import io.xeres.mobile.MainActivity;
+import io.xeres.mobile.R;
 import io.xeres.mobile.databinding.FragmentContactsBinding;
 import io.xeres.mobile.service.ConnectionService;
 import io.xeres.mobile.service.LocalBinder;
@@ -51,15 +54,19 @@ import io.xeres.mobile.service.json.Location;
 import io.xeres.mobile.service.json.Profile;
 import io.xeres.mobile.ui.chat.ChatActivity;
 import io.xeres.mobile.view.AsyncImageView;
+import io.xeres.mobile.view.ImagePrefetcher;
 import io.xeres.mobile.view.TreeItem;
 
 public class ContactsFragment extends Fragment
 {
 	private static final String TAG = "ContactsFragment";
 
+	private static final int AVATAR_PREFETCH_DISTANCE = 10;
+
 	private FragmentContactsBinding binding;
 	private ConnectionService connectionService;
 	private boolean bound;
+	private ImagePrefetcher avatarPrefetcher;
 
 	public View onCreateView(@NonNull LayoutInflater inflater,
 	                         ViewGroup container, Bundle savedInstanceState)
@@ -94,6 +101,11 @@ public class ContactsFragment extends Fragment
 	public void onDestroyView()
 	{
 		super.onDestroyView();
+		if (avatarPrefetcher != null)
+		{
+			avatarPrefetcher.cancelAll();
+			avatarPrefetcher = null;
+		}
 		binding = null;
 	}
 
@@ -101,7 +113,7 @@ public class ContactsFragment extends Fragment
 	{
 		var filteredContacts = sortContacts(getContacts(filterContacts(contacts)));
 
-		binding.contactsListview.setAdapter(new ContactsAdapter(filteredContacts, imageInput, contact -> connectionService.findProfileById(contact.getProfileId(), profile -> {
+		var adapter = new ContactsAdapter(filteredContacts, imageInput, contact -> connectionService.findProfileById(contact.getProfileId(), profile -> {
 			var intent = new Intent(getContext(), ChatActivity.class);
 			var location = getFirstConnectedLocation(profile);
 			if (location != null)
@@ -128,7 +140,72 @@ public class ContactsFragment extends Fragment
 				}
 				startActivity(intent);
 			}
-		})));
+		}));
+		var listView = binding.contactsListview;
+		listView.setAdapter(adapter);
+		setupAvatarPrefetcher(listView, adapter, imageInput);
+	}
+
+	private void setupAvatarPrefetcher(ExpandableListView listView, ContactsAdapter adapter, AsyncImageView.ImageInput imageInput)
+	{
+		if (avatarPrefetcher != null)
+		{
+			avatarPrefetcher.cancelAll();
+		}
+		var avatarSize = getResources().getDimensionPixelSize(R.dimen.avatar_size);
+		avatarPrefetcher = new ImagePrefetcher(requireContext(), new ImagePrefetcher.Source()
+		{
+			@Override
+			public int getCount()
+			{
+				return listView.getCount();
+			}
+
+			@Override
+			public String getImageUrl(int position)
+			{
+				var contact = getContactAt(listView, adapter, position);
+				return contact != null && contact.getIdentityId() != 0L ? String.valueOf(contact.getIdentityId()) : null;
+			}
+		}, AVATAR_PREFETCH_DISTANCE, avatarSize, avatarSize);
+		avatarPrefetcher.setImageInput(imageInput);
+
+		var prefetcher = avatarPrefetcher;
+		listView.setOnScrollListener(new AbsListView.OnScrollListener()
+		{
+			@Override
+			public void onScrollStateChanged(AbsListView view, int scrollState)
+			{
+				prefetcher.setPaused(scrollState == SCROLL_STATE_FLING);
+			}
+
+			@Override
+			public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount)
+			{
+				if (visibleItemCount > 0)
+				{
+					prefetcher.onScrolled(firstVisibleItem, firstVisibleItem + visibleItemCount - 1);
+				}
+			}
+		});
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Contact getContactAt(ExpandableListView listView, ContactsAdapter adapter, int flatPosition)
+	{
+		var packedPosition = listView.getExpandableListPosition(flatPosition);
+		var groupPosition = ExpandableListView.getPackedPositionGroup(packedPosition);
+		switch (ExpandableListView.getPackedPositionType(packedPosition))
+		{
+			case ExpandableListView.PACKED_POSITION_TYPE_GROUP:
+				return ((TreeItem<Contact>) adapter.getGroup(groupPosition)).getValue();
+
+			case ExpandableListView.PACKED_POSITION_TYPE_CHILD:
+				return ((TreeItem<Contact>) adapter.getChild(groupPosition, ExpandableListView.getPackedPositionChild(packedPosition))).getValue();
+
+			default:
+				return null;
+		}
 	}
 
 	private Location getFirstConnectedLocation(Profile profile)
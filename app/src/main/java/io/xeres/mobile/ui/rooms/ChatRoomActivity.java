@@ -23,22 +23,22 @@ import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
 import android.content.ServiceConnection;
-import android.graphics.Bitmap;
+import android.net.Uri;
 import android.os.Bundle;
 import android.os.IBinder;
-import android.provider.MediaStore;
 import android.text.Editable;
 import android.text.TextUtils;
 import android.text.TextWatcher;
-import android.util.Base64;
 import android.util.Log;
 import android.view.KeyEvent;
 import android.view.MenuItem;
 import android.widget.EditText;
 import android.widget.ImageButton;
 import android.widget.TextView;
+import android.widget.Toast;
 
 import androidx.activity.EdgeToEdge;
+import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.widget.Toolbar;
 import androidx.core.graphics.Insets;
@@ -47,20 +47,23 @@ import androidx.core.view.WindowInsetsCompat;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
-import java.io.ByteArrayOutputStream;
-import java.io.FileNotFoundException;
-import java.io.IOException;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.List;
+import java.util.function.Consumer;
 
 import io.xeres.mobile.R;
 import io.xeres.mobile.service.ConnectionService;
 import io.xeres.mobile.service.LocalBinder;
+import io.xeres.mobile.service.json.ChatRoomBacklog;
 import io.xeres.mobile.service.json.ChatRoomMessage;
-import io.xeres.mobile.util.BitmapUtils;
+import io.xeres.mobile.service.stomp.StompDispatcher;
+import io.xeres.mobile.util.BacklogWindow;
+import io.xeres.mobile.util.ChatProcessor;
+import io.xeres.mobile.util.ImageEncoder;
 import io.xeres.mobile.util.JsonUtils;
+import io.xeres.mobile.util.LiveMessagePipeline;
 import io.xeres.mobile.util.UiUtils;
-import rx.Subscription;
 import ua.naiksoftware.stomp.client.StompMessage;
 
 public class ChatRoomActivity extends AppCompatActivity
@@ -68,6 +71,8 @@ public class ChatRoomActivity extends AppCompatActivity
 	private static final String TAG = "ChatRoomActivity";
 
 	private static final Duration TYPING_NOTIFICATION_DELAY = Duration.ofSeconds(5);
+	private static final int MAXIMUM_IMAGE_PIXELS = 320 * 240;
+	private static final int MAXIMUM_IMAGE_SIZE = 32 * 1024;
 
 	private ConnectionService connectionService;
 	private boolean bound;
@@ -78,15 +83,34 @@ public class ChatRoomActivity extends AppCompatActivity
 
 	private String ownName;
 
-	private Subscription subscription;
+	private final StompDispatcher.MessageListener messageListener = new StompDispatcher.MessageListener()
+	{
+		@Override
+		public void onMessage(String messageType, StompMessage stompMessage)
+		{
+			onStompMessage(messageType, stompMessage);
+		}
+
+		@Override
+		public void onReconnected()
+		{
+			if (bound)
+			{
+				connectionService.catchUpChatRoomBacklog(id, ChatRoomActivity.this::addNewerBacklogs);
+			}
+		}
+	};
 
 	private ChatRoomAdapter chatRoomAdapter;
 
+	private LiveMessagePipeline<ChatProcessor.Prerendered<ChatRoomBacklog>> liveMessagePipeline;
+
 	private TextView typingView;
 
 	private Instant lastTypingNotification = Instant.EPOCH;
 
 	private String messageToSend;
+	private ImageEncoder imageEncoder;
 
 	private enum MessageType {
 		CHAT_ROOM_TYPING_NOTIFICATION,
@@ -98,6 +122,8 @@ public class ChatRoomActivity extends AppCompatActivity
 	protected void onCreate(Bundle savedInstanceState)
 	{
 		super.onCreate(savedInstanceState);
+
+		liveMessagePipeline = new LiveMessagePipeline<>(this::addIncomingLines);
 		EdgeToEdge.enable(this);
 		setContentView(R.layout.activity_chatroom);
 
@@ -116,6 +142,17 @@ public class ChatRoomActivity extends AppCompatActivity
 		var layoutManager = new LinearLayoutManager(this);
 		layoutManager.setStackFromEnd(true);
 		recyclerView.setLayoutManager(layoutManager);
+		recyclerView.addOnScrollListener(new RecyclerView.OnScrollListener()
+		{
+			@Override
+			public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy)
+			{
+				if (chatRoomAdapter != null)
+				{
+					chatRoomAdapter.onScrolled(layoutManager.findFirstVisibleItemPosition(), layoutManager.findLastVisibleItemPosition());
+				}
+			}
+		});
 
 		typingView = findViewById(R.id.typing_view);
 
@@ -166,28 +203,8 @@ public class ChatRoomActivity extends AppCompatActivity
 		if (shareUri != null)
 		{
 			Log.d(TAG, "shareUri: " + shareUri);
-			try
-			{
-				var bitmap = BitmapUtils.getScaledBitmap(MediaStore.Images.Media.getBitmap(getContentResolver(), shareUri), 320 * 240);
-				bitmap = BitmapUtils.rotateBitmapIfNeeded(bitmap, BitmapUtils.getImageOrientation(getContentResolver(), shareUri));
-				var output = new ByteArrayOutputStream();
-				bitmap.compress(Bitmap.CompressFormat.JPEG, 50, output); // XXX: thread... and also limite the size
-
-				Log.d(TAG, "send size: " + output.size());
-
-				var imageString = Base64.encodeToString(output.toByteArray(), Base64.NO_WRAP);
-
-				messageToSend = "<img src=\"data:image/jpeg;base64," + imageString + "\"/>"; // XXX: we cannot use the send EditText because it has a limited size... we will have to delay the sending
-				intent.setData(null);
-			}
-			catch (FileNotFoundException e)
-			{
-				Log.e(TAG, "File not found: " + e.getMessage());
-			}
-			catch (IOException e)
-			{
-				Log.e(TAG, "I/O error: " + e.getMessage());
-			}
+			// Only cleared once sent, so that it is encoded again if the activity is recreated in between
+			encodeImage(shareUri);
 		}
 		else
 		{
@@ -243,11 +260,71 @@ public class ChatRoomActivity extends AppCompatActivity
 		super.onStop();
 		if (bound)
 		{
+			connectionService.removeMessageListener(ConnectionService.CHAT_ROOM_TOPIC, String.valueOf(id), messageListener);
 			unbindService(connection);
 			bound = false;
 		}
 	}
 
+	@Override
+	protected void onDestroy()
+	{
+		Log.d(TAG, "Live messages: " + liveMessagePipeline.getMessageCount() + " in " + liveMessagePipeline.getBatchCount() + " batches");
+		liveMessagePipeline.close();
+		if (imageEncoder != null)
+		{
+			imageEncoder.cancel();
+		}
+		super.onDestroy();
+	}
+
+	private void encodeImage(Uri uri)
+	{
+		imageEncoder = new ImageEncoder(getContentResolver(), MAXIMUM_IMAGE_PIXELS, MAXIMUM_IMAGE_SIZE, new ImageEncoder.Listener()
+		{
+			@Override
+			public void onProgress(int percent)
+			{
+				setSubtitle(getString(R.string.encoding_image, percent));
+			}
+
+			@Override
+			public void onEncoded(String message)
+			{
+				setSubtitle(null);
+				imageEncoder = null;
+				if (bound && chatRoomAdapter != null)
+				{
+					connectionService.sendChatRoomMessage(id, message);
+					getIntent().setData(null);
+				}
+				else
+				{
+					messageToSend = message; // Sent once the backlog is there, the shared image is kept until then in case the activity is recreated
+				}
+			}
+
+			@Override
+			public void onError()
+			{
+				setSubtitle(null);
+				imageEncoder = null;
+				getIntent().setData(null);
+				Toast.makeText(ChatRoomActivity.this, R.string.encoding_image_failed, Toast.LENGTH_SHORT).show();
+			}
+		});
+		imageEncoder.encode(uri);
+	}
+
+	private void setSubtitle(String subtitle)
+	{
+		var actionBar = getSupportActionBar();
+		if (actionBar != null)
+		{
+			actionBar.setSubtitle(subtitle);
+		}
+	}
+
 	private void sendTypingNotificationIfNeeded()
 	{
 		var now = Instant.now();
@@ -258,6 +335,78 @@ public class ChatRoomActivity extends AppCompatActivity
 		}
 	}
 
+	private void onStompMessage(String stompMessageType, StompMessage stompMessage)
+	{
+		var messageType = getMessageType(stompMessageType);
+
+		if (messageType == MessageType.CHAT_ROOM_TYPING_NOTIFICATION)
+		{
+			var chatMessage = JsonUtils.GSON.fromJson(stompMessage.getPayload(), ChatRoomMessage.class);
+
+			runOnUiThread(() -> {
+				typingView.setText(chatMessage.getSenderNickname() + " is typing...");
+				typingView.postDelayed(() -> typingView.setText(""), 4000);
+			});
+		}
+		else if (messageType == MessageType.CHAT_ROOM_MESSAGE)
+		{
+			liveMessagePipeline.submit(() -> {
+				var chatMessage = JsonUtils.GSON.fromJson(stompMessage.getPayload(), ChatRoomMessage.class);
+				//Log.d(TAG, "message: " + chatMessage.getContent());
+				if (chatMessage.getContent() == null)
+				{
+					return null;
+				}
+				var line = new ChatRoomBacklog(chatMessage.getSenderNickname(), chatMessage.getGxsId(), chatMessage.getContent());
+				return new ChatProcessor.Prerendered<>(line, chatRoomAdapter.renderLine(ChatProcessor.getInstance(ChatRoomActivity.this), line));
+			});
+		}
+	}
+
+	private void addIncomingLines(List<ChatProcessor.Prerendered<ChatRoomBacklog>> incomingLines)
+	{
+		if (chatRoomAdapter == null)
+		{
+			return;
+		}
+		RecyclerView recyclerView = findViewById(R.id.chat_recycler);
+		// One range insert and one scroll per batch, whatever its size
+		var atBottom = UiUtils.isAtBottom(recyclerView);
+		chatRoomAdapter.addIncomingChatMessages(incomingLines);
+		if (atBottom)
+		{
+			UiUtils.scrollToBottom(recyclerView, chatRoomAdapter);
+		}
+	}
+
+	private void addNewerBacklogs(List<ChatRoomBacklog> newerBacklogs)
+	{
+		if (chatRoomAdapter == null)
+		{
+			return;
+		}
+		RecyclerView recyclerView = findViewById(R.id.chat_recycler);
+		chatRoomAdapter.addBacklogs(newerBacklogs);
+		UiUtils.scrollToBottomIfPossible(recyclerView, chatRoomAdapter);
+	}
+
+	private MessageType getMessageType(String messageType)
+	{
+		if (messageType == null)
+		{
+			return MessageType.OTHER;
+		}
+		if (messageType.equals("CHAT_ROOM_MESSAGE"))
+		{
+			return MessageType.CHAT_ROOM_MESSAGE;
+		}
+		else if (messageType.equals("CHAT_ROOM_TYPING_NOTIFICATION"))
+		{
+			return MessageType.CHAT_ROOM_TYPING_NOTIFICATION;
+		}
+		return MessageType.OTHER;
+	}
+
 	private final ServiceConnection connection = new ServiceConnection()
 	{
 		@Override
@@ -268,87 +417,53 @@ public class ChatRoomActivity extends AppCompatActivity
 			bound = true;
 
 			connectionService.getChatRoomBacklog(id, chatRoomBacklogs -> {
+				if (!bound)
+				{
+					return;
+				}
 				Log.d(TAG, "Getting backlogs from location " + id);
-				RecyclerView recyclerView = findViewById(R.id.chat_recycler);
-
-				chatRoomAdapter = new ChatRoomAdapter(ownName, id, chatRoomBacklogs, connectionService);
-				recyclerView.setAdapter(chatRoomAdapter);
-
-				subscription = connectionService.getMessages("/topic/chat/room")
-						.doOnNext(stompMessage -> {
-							var messageType = getMessageType(stompMessage);
-
-							if (!isForUs(stompMessage))
-							{
-								return;
-							}
-
-							if (messageType == MessageType.CHAT_ROOM_TYPING_NOTIFICATION)
-							{
-								var chatMessage = JsonUtils.GSON.fromJson(stompMessage.getPayload(), ChatRoomMessage.class);
-
-								typingView.setText(chatMessage.getSenderNickname() + " is typing...");
-								typingView.postDelayed(() -> typingView.setText(""), 4000);
-							}
-							else if (messageType == MessageType.CHAT_ROOM_MESSAGE)
-							{
-								var chatMessage = JsonUtils.GSON.fromJson(stompMessage.getPayload(), ChatRoomMessage.class);
-								//Log.d(TAG, "message: " + chatMessage.getContent());
-								if (chatMessage.getContent() != null)
-								{
-									runOnUiThread(() -> {
-										chatRoomAdapter.addIncomingChatMessage(chatMessage);
-										UiUtils.scrollToBottomIfPossible(recyclerView, chatRoomAdapter);
-									});
-								}
-							}
-						})
-						.doOnError(throwable -> Log.e(TAG, "Error: ", throwable))
-						.subscribe();
+				if (chatRoomAdapter != null)
+				{
+					// Coming back, only display the differences and keep the scroll position
+					chatRoomAdapter.setBacklogs(chatRoomBacklogs);
+				}
+				else
+				{
+					RecyclerView recyclerView = findViewById(R.id.chat_recycler);
+
+					chatRoomAdapter = new ChatRoomAdapter(ownName, id, chatRoomBacklogs, connectionService);
+					chatRoomAdapter.setPageLoader(new BacklogWindow.PageLoader<>()
+					{
+						@Override
+						public void loadOlder(ChatRoomBacklog first, Consumer<List<ChatRoomBacklog>> consumer)
+						{
+							connectionService.getOlderChatRoomBacklog(id, first.getCreated(), consumer);
+						}
+
+						@Override
+						public void loadNewer(ChatRoomBacklog last, Consumer<List<ChatRoomBacklog>> consumer)
+						{
+							connectionService.getNewerChatRoomBacklog(id, last.getCreated(), consumer);
+						}
+					});
+					recyclerView.setAdapter(chatRoomAdapter);
+				}
+
+				connectionService.addMessageListener(ConnectionService.CHAT_ROOM_TOPIC, String.valueOf(id), messageListener);
 
 				if (messageToSend != null)
 				{
 					connectionService.sendChatRoomMessage(id, messageToSend);
 					messageToSend = null;
+					getIntent().setData(null);
 				}
-			});
-		}
-
-		private MessageType getMessageType(StompMessage stompMessage)
-		{
-			var messageType = stompMessage.findHeader("messageType");
-
-			if (messageType == null)
-			{
-				return MessageType.OTHER;
-			}
-			if (messageType.equals("CHAT_ROOM_MESSAGE"))
-			{
-				return MessageType.CHAT_ROOM_MESSAGE;
-			}
-			else if (messageType.equals("CHAT_ROOM_TYPING_NOTIFICATION"))
-			{
-				return MessageType.CHAT_ROOM_TYPING_NOTIFICATION;
-			}
-			return MessageType.OTHER;
-		}
-
-		private boolean isForUs(StompMessage stompMessage)
-		{
-			var destination = stompMessage.findHeader("destinationId");
-
-			return destination != null && Long.parseLong(destination) == id;
+			}, ChatRoomActivity.this::addNewerBacklogs);
 		}
 
 		@Override
 		public void onServiceDisconnected(ComponentName name)
 		{
 			bound = false;
-
-			if (subscription != null)
-			{
-				subscription.unsubscribe();
-			}
 		}
 	};
 }
@@ -27,16 +27,24 @@ import android.view.ViewGroup;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.WeakHashMap;
 
 import io.xeres.mobile.R;
 import io.xeres.mobile.service.json.ChatRoomBacklog;
-import io.xeres.mobile.service.json.ChatRoomMessage;
+import io.xeres.mobile.service.json.GxsId;
+import io.xeres.mobile.util.BacklogWindow;
+import io.xeres.mobile.util.ChatLinePrerenderer;
 import io.xeres.mobile.util.ChatProcessor;
 import io.xeres.mobile.view.AsyncImageView;
 
@@ -46,19 +54,44 @@ class ChatRoomAdapter extends RecyclerView.Adapter<ChatRoomAdapter.ViewHolder>
 
 	private final String ownName;
 	private final long roomId;
-	private final List<ChatRoomBacklog> backlogs;
+	private final BacklogWindow<ChatRoomBacklog> backlogs;
+	private final Map<ChatRoomBacklog, ChatProcessor.RenderedLine> prerenderedLines = new WeakHashMap<>();
 	private final AsyncImageView.ImageInput imageInput;
 	private ChatProcessor chatProcessor;
+	private ChatLinePrerenderer<ChatRoomBacklog> prerenderer;
 
 	private static final DateTimeFormatter TIME_DISPLAY = DateTimeFormatter.ofPattern("HH:mm")
 			.withLocale(Locale.ROOT)
 			.withZone(ZoneId.systemDefault());
 
+	/**
+	 * A live message and its synced version only differ by their creation time.
+	 */
+	private static final DiffUtil.ItemCallback<ChatRoomBacklog> DIFF_CALLBACK = new DiffUtil.ItemCallback<>()
+	{
+		@Override
+		public boolean areItemsTheSame(@NonNull ChatRoomBacklog oldItem, @NonNull ChatRoomBacklog newItem)
+		{
+			return Arrays.equals(getGxsIdBytes(oldItem.getGxsId()), getGxsIdBytes(newItem.getGxsId())) && Objects.equals(oldItem.getMessage(), newItem.getMessage());
+		}
+
+		@Override
+		public boolean areContentsTheSame(@NonNull ChatRoomBacklog oldItem, @NonNull ChatRoomBacklog newItem)
+		{
+			return Objects.equals(oldItem.getCreated(), newItem.getCreated()) && Objects.equals(oldItem.getNickname(), newItem.getNickname());
+		}
+
+		private byte[] getGxsIdBytes(GxsId gxsId)
+		{
+			return gxsId != null ? gxsId.getBytes() : null;
+		}
+	};
+
 	public ChatRoomAdapter(String ownName, long roomId, List<ChatRoomBacklog> backlogs, AsyncImageView.ImageInput imageInput)
 	{
 		this.ownName = ownName;
 		this.roomId = roomId;
-		this.backlogs = backlogs;
+		this.backlogs = new BacklogWindow<>(this, backlogs, DIFF_CALLBACK);
 		this.imageInput = imageInput;
 	}
 
@@ -67,8 +100,19 @@ class ChatRoomAdapter extends RecyclerView.Adapter<ChatRoomAdapter.ViewHolder>
 	public ChatRoomAdapter.ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType)
 	{
 		var view = LayoutInflater.from(parent.getContext()).inflate(R.layout.chat_row_item, parent, false);
-		chatProcessor = new ChatProcessor(parent.getContext());
-		return new ChatRoomAdapter.ViewHolder(view);
+		if (chatProcessor == null)
+		{
+			chatProcessor = ChatProcessor.getInstance(parent.getContext());
+		}
+		var viewHolder = new ChatRoomAdapter.ViewHolder(view);
+		if (prerenderer == null)
+		{
+			prerenderer = new ChatLinePrerenderer<>(parent.getContext(), this::renderLine);
+			prerenderer.setTextMetricsParams(viewHolder.getTextView().getTextMetricsParams());
+			backlogs.setAddedItemsListener(prerenderer::prerender);
+			prerenderer.prerender(backlogs.getItems());
+		}
+		return viewHolder;
 	}
 
 	@SuppressLint("SetTextI18n")
@@ -87,17 +131,72 @@ class ChatRoomAdapter extends RecyclerView.Adapter<ChatRoomAdapter.ViewHolder>
 		return backlogs.size();
 	}
 
-	public void addIncomingChatMessage(ChatRoomMessage chatRoomMessage)
+	/**
+	 * Adds messages that were just received, already rendered.
+	 *
+	 * @param incomingLines the messages, in the order they arrived
+	 */
+	public void addIncomingChatMessages(List<ChatProcessor.Prerendered<ChatRoomBacklog>> incomingLines)
 	{
-		backlogs.add(new ChatRoomBacklog(chatRoomMessage.getSenderNickname(), chatRoomMessage.getGxsId(), chatRoomMessage.getContent()));
-		notifyItemInserted(backlogs.size() - 1);
+		var lines = new ArrayList<ChatRoomBacklog>(incomingLines.size());
+		for (var incomingLine : incomingLines)
+		{
+			prerenderedLines.put(incomingLine.getItem(), incomingLine.getRenderedLine());
+			lines.add(incomingLine.getItem());
+		}
+		backlogs.addLive(lines);
+	}
+
+	/**
+	 * Adds messages fetched from the backlog. They replace the live messages received
+	 * in the meantime because those are part of the backlog too.
+	 *
+	 * @param newBacklogs the backlogs, sorted by creation time
+	 */
+	public void addBacklogs(List<ChatRoomBacklog> newBacklogs)
+	{
+		backlogs.addSynced(newBacklogs);
+	}
+
+	/**
+	 * Replaces the backlogs, for example when they're fetched again. Only the differences are displayed again.
+	 *
+	 * @param newBacklogs the backlogs, sorted by creation time
+	 */
+	public void setBacklogs(List<ChatRoomBacklog> newBacklogs)
+	{
+		backlogs.replaceAll(newBacklogs);
+	}
+
+	public void setPageLoader(BacklogWindow.PageLoader<ChatRoomBacklog> pageLoader)
+	{
+		backlogs.setPageLoader(pageLoader);
+	}
+
+	public void onScrolled(int firstVisible, int lastVisible)
+	{
+		backlogs.onScrolled(firstVisible, lastVisible);
 	}
 
 	private void processChatLine(ChatRoomAdapter.ViewHolder holder, ChatRoomBacklog line)
+	{
+		var renderedLine = prerenderedLines.get(line);
+		if (renderedLine != null)
+		{
+			chatProcessor.bindLine(renderedLine, holder.getTextView(), holder.getAsyncImageView());
+			return;
+		}
+		chatProcessor.bindLine(renderLine(chatProcessor, line), holder.getTextView(), holder.getAsyncImageView());
+	}
+
+	/**
+	 * Renders a line. Only reads immutable state, so it can be called outside the main thread.
+	 */
+	ChatProcessor.RenderedLine renderLine(ChatProcessor processor, ChatRoomBacklog line)
 	{
 		var nickname = line.getGxsId() == null ? ownName : line.getNickname();
 		var isOwn = line.getGxsId() == null;
-		chatProcessor.processLine(isOwn ? nickname : line.getGxsId().toString(), nickname, line.getMessage(), isOwn, holder.getTextView(), holder.getAsyncImageView());
+		return processor.renderLine(isOwn ? nickname : line.getGxsId().toString(), nickname, line.getMessage(), isOwn);
 	}
 
 	public static class ViewHolder extends RecyclerView.ViewHolder
@@ -25,25 +25,46 @@ import android.view.ViewGroup;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListAdapter;
 import androidx.recyclerview.widget.RecyclerView;
 
-import java.util.List;
+import java.util.Objects;
 
 import io.xeres.mobile.OnRecyclerViewItemClickListener;
 import io.xeres.mobile.R;
 import io.xeres.mobile.service.json.ChatRoom;
 
-class ChatRoomsAdapter extends RecyclerView.Adapter<ChatRoomsAdapter.ViewHolder>
+/**
+ * Lists the rooms. New lists are diffed on a background thread so that only the rooms
+ * that changed are bound again.
+ */
+class ChatRoomsAdapter extends ListAdapter<ChatRoom, ChatRoomsAdapter.ViewHolder>
 {
 	private static final String TAG = "RoomsAdapter";
 
-	private final List<ChatRoom> chatRooms;
+	private static final DiffUtil.ItemCallback<ChatRoom> DIFF_CALLBACK = new DiffUtil.ItemCallback<>()
+	{
+		@Override
+		public boolean areItemsTheSame(@NonNull ChatRoom oldItem, @NonNull ChatRoom newItem)
+		{
+			return oldItem.getId() == newItem.getId();
+		}
+
+		@Override
+		public boolean areContentsTheSame(@NonNull ChatRoom oldItem, @NonNull ChatRoom newItem)
+		{
+			return Objects.equals(oldItem.getName(), newItem.getName());
+		}
+	};
+
 	private final OnRecyclerViewItemClickListener listener;
 
-	public ChatRoomsAdapter(List<ChatRoom> chatRooms, OnRecyclerViewItemClickListener listener)
+	public ChatRoomsAdapter(OnRecyclerViewItemClickListener listener)
 	{
-		this.chatRooms = chatRooms;
+		super(DIFF_CALLBACK);
 		this.listener = listener;
+		setHasStableIds(true);
 	}
 
 	@NonNull
@@ -56,14 +77,19 @@ class ChatRoomsAdapter extends RecyclerView.Adapter<ChatRoomsAdapter.ViewHolder>
 	@Override
 	public void onBindViewHolder(@NonNull ViewHolder holder, int position)
 	{
-		var room = chatRooms.get(position);
+		var room = getItem(position);
 		holder.getTextView().setText(room.getName());
 	}
 
 	@Override
-	public int getItemCount()
+	public long getItemId(int position)
+	{
+		return getItem(position).getId();
+	}
+
+	public ChatRoom getChatRoom(int position)
 	{
-		return chatRooms.size();
+		return getItem(position);
 	}
 
 	public static class ViewHolder extends RecyclerView.ViewHolder
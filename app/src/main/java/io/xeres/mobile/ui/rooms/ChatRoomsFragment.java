@@ -28,6 +28,7 @@ import android.os.Bundle;
 import androidx.annotation.NonNull;
 import androidx.fragment.app.Fragment;
 import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
 
 import android.os.IBinder;
 import android.util.Log;
@@ -51,6 +52,8 @@ public class ChatRoomsFragment extends Fragment
 	private static final String TAG = "RoomsFragment";
 
 	private FragmentRoomsBinding binding;
+	private ChatRoomsAdapter adapter;
+	private String nickname;
 	private ConnectionService connectionService;
 	private boolean bound;
 
@@ -62,6 +65,7 @@ public class ChatRoomsFragment extends Fragment
 		var recyclerView = binding.roomsRecycler;
 		recyclerView.setLayoutManager(new LinearLayoutManager(getActivity()));
 		recyclerView.setHasFixedSize(true); // XXX: be careful with that...
+		recyclerView.setAdapter(adapter);
 		return binding.getRoot();
 	}
 
@@ -70,6 +74,8 @@ public class ChatRoomsFragment extends Fragment
 	{
 		super.onCreate(savedInstanceState);
 
+		adapter = new ChatRoomsAdapter(this::openChatRoom);
+
 		Log.d(TAG, "Binding to service...");
 		var intent = new Intent(getContext(), ConnectionService.class);
 		requireActivity().bindService(intent, connection, Context.BIND_AUTO_CREATE);
@@ -95,32 +101,39 @@ public class ChatRoomsFragment extends Fragment
 
 	private void setChatRoomContext(ChatRoomContext chatRoomContext)
 	{
-		var sortedChatRooms = sortChatRooms(chatRoomContext.getChatRooms().getSubscribed());
-		binding.roomsRecycler.setAdapter(new ChatRoomsAdapter(sortedChatRooms, position -> {
-			var chatRoom = sortedChatRooms.get(position);
-			var intent = new Intent(getContext(), ChatRoomActivity.class);
-			intent.putExtra("id", chatRoom.getId());
-			intent.putExtra("nick", chatRoomContext.getIdentity().getNickname());
-			intent.putExtra("roomName", chatRoom.getName());
-			var mainActivity = (MainActivity) getActivity();
-			assert mainActivity != null;
-			var textToShare = mainActivity.getTextToShare();
-			if (textToShare != null)
+		nickname = chatRoomContext.getIdentity().getNickname();
+		adapter.submitList(sortChatRooms(chatRoomContext.getChatRooms().getSubscribed()));
+	}
+
+	private void openChatRoom(int position)
+	{
+		if (position == RecyclerView.NO_POSITION)
+		{
+			return;
+		}
+		var chatRoom = adapter.getChatRoom(position);
+		var intent = new Intent(getContext(), ChatRoomActivity.class);
+		intent.putExtra("id", chatRoom.getId());
+		intent.putExtra("nick", nickname);
+		intent.putExtra("roomName", chatRoom.getName());
+		var mainActivity = (MainActivity) getActivity();
+		assert mainActivity != null;
+		var textToShare = mainActivity.getTextToShare();
+		if (textToShare != null)
+		{
+			intent.putExtra(Intent.EXTRA_TEXT, textToShare);
+			mainActivity.clearSharingUris();
+		}
+		else
+		{
+			var imageToShare = mainActivity.getImageToShare();
+			if (imageToShare != null)
 			{
-				intent.putExtra(Intent.EXTRA_TEXT, textToShare);
+				intent.setData(imageToShare);
 				mainActivity.clearSharingUris();
 			}
-			else
-			{
-				var imageToShare = mainActivity.getImageToShare();
-				if (imageToShare != null)
-				{
-					intent.setData(imageToShare);
-					mainActivity.clearSharingUris();
-				}
-			}
-			startActivity(intent);
-		}));
+		}
+		startActivity(intent);
 	}
 
 	private List<ChatRoom> sortChatRooms(List<ChatRoom> chatRooms)
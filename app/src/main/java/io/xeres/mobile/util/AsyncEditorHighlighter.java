@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2025 by David Gerber - https://zapek.com
+ *
+ * This file is part of Xeres-Android.
+ *
+ * Xeres-Android is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Xeres-Android is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Xeres-Android.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.xeres.mobile.util;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.text.Editable;
+import android.text.SpannableStringBuilder;
+import android.text.TextWatcher;
+import android.util.Log;
+import android.widget.EditText;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import io.noties.markwon.editor.MarkwonEditor;
+
+/**
+ * Highlights the markdown of an editor in the background. The highlighting starts once the
+ * typing pauses and its result is only applied if the text didn't change in the meantime, so
+ * typing doesn't get slower as the text gets longer.
+ */
+public class AsyncEditorHighlighter implements TextWatcher
+{
+	private static final String TAG = "AsyncEditorHighlighter";
+
+	private static final long DEBOUNCE_DELAY = 150L;
+
+	// Shared so that there's no thread to stop
+	private static final ExecutorService highlightExecutor = Executors.newSingleThreadExecutor();
+
+	private final Handler handler = new Handler(Looper.getMainLooper());
+	private final Runnable highlightRunnable = this::highlight;
+	private final MarkwonEditor editor;
+	private final EditText editText;
+	private volatile int generation;
+	private boolean selfChange;
+
+	private AsyncEditorHighlighter(MarkwonEditor editor, EditText editText)
+	{
+		this.editor = editor;
+		this.editText = editText;
+	}
+
+	/**
+	 * Highlights the markdown of an editor as it's typed.
+	 *
+	 * @param editor   the editor
+	 * @param editText the view
+	 */
+	public static void attach(MarkwonEditor editor, EditText editText)
+	{
+		editText.addTextChangedListener(new AsyncEditorHighlighter(editor, editText));
+	}
+
+	@Override
+	public void beforeTextChanged(CharSequence s, int start, int count, int after)
+	{
+
+	}
+
+	@Override
+	public void onTextChanged(CharSequence s, int start, int before, int count)
+	{
+
+	}
+
+	@Override
+	public void afterTextChanged(Editable s)
+	{
+		if (selfChange)
+		{
+			return;
+		}
+		generation++;
+		handler.removeCallbacks(highlightRunnable);
+		handler.postDelayed(highlightRunnable, DEBOUNCE_DELAY);
+	}
+
+	private void highlight()
+	{
+		var expectedGeneration = generation;
+		var text = editText.getText().toString();
+		highlightExecutor.execute(() -> {
+			if (expectedGeneration != generation)
+			{
+				return; // Typed again since
+			}
+			try
+			{
+				editor.preRender(new SpannableStringBuilder(text), result -> handler.post(() -> {
+					if (expectedGeneration != generation || !editText.isAttachedToWindow())
+					{
+						return;
+					}
+					selfChange = true;
+					try
+					{
+						result.dispatchTo(editText.getText());
+					}
+					finally
+					{
+						selfChange = false;
+					}
+				}));
+			}
+			catch (RuntimeException e)
+			{
+				Log.e(TAG, "Failed to highlight: ", e);
+			}
+		});
+	}
+}
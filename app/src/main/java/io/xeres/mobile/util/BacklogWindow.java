@@ -0,0 +1,527 @@
+/*
+ * Copyright (c) 2025 by David Gerber - https://zapek.com
+ *
+ * This file is part of Xeres-Android.
+ *
+ * Xeres-Android is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Xeres-Android is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Xeres-Android.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.xeres.mobile.util;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.Nullable;
+import androidx.recyclerview.widget.AdapterListUpdateCallback;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListUpdateCallback;
+import androidx.recyclerview.widget.RecyclerView;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * Holds a window of a chat backlog for an adapter. Older pages are loaded when
+ * scrolling to the top and items far away from what is displayed are dropped, so the
+ * memory use doesn't depend on how long the history is.
+ * <p>
+ * Live messages are provisional: they're replaced by the backlog once it's synced.
+ * Replacements are diffed on a background thread and only the differences are sent
+ * to the adapter, so the view holders of the unchanged items are kept. Changes made
+ * while a replacement is being diffed are held and done, in order, once it's applied.
+ * All methods must be called from the main thread.
+ *
+ * @param <T> the backlog type
+ */
+public class BacklogWindow<T>
+{
+	/**
+	 * Loads pages of the backlog, usually from the store then the server.
+	 *
+	 * @param <T> the backlog type
+	 */
+	public interface PageLoader<T>
+	{
+		/**
+		 * Loads the messages before a given one.
+		 *
+		 * @param first    the first message of the window
+		 * @param consumer gets the messages sorted by creation time, an empty list if there's none left or null if there was an error
+		 */
+		void loadOlder(T first, Consumer<List<T>> consumer);
+
+		/**
+		 * Loads the messages after a given one.
+		 *
+		 * @param last     the last message of the window
+		 * @param consumer gets the messages sorted by creation time, an empty list if there's none left or null if there was an error
+		 */
+		void loadNewer(T last, Consumer<List<T>> consumer);
+	}
+
+	private static final int PREFETCH_DISTANCE = 10;
+	private static final int KEEP_DISTANCE = PREFETCH_DISTANCE * 2;
+	private static final int MAXIMUM_SIZE = 200;
+
+	private static final ExecutorService sharedDiffExecutor = Executors.newSingleThreadExecutor();
+
+	private final ListUpdateCallback updateCallback;
+	private final Executor mainExecutor;
+	private final Executor diffExecutor;
+	private final DiffUtil.ItemCallback<T> diffCallback;
+	private final List<T> items;
+	private final List<T> detachedLiveItems = new ArrayList<>();
+	private PageLoader<T> pageLoader;
+	private Consumer<List<T>> addedItemsListener;
+	private int provisionalCount;
+	private boolean hasOlder = true;
+	private boolean hasNewer;
+	private boolean loading;
+	private boolean updatePending;
+	private int firstVisible = -1;
+	private int lastVisible = -1;
+	private int pageGeneration;
+	private boolean replacing;
+	private final List<Runnable> heldChanges = new ArrayList<>();
+
+	/**
+	 * Creates a window.
+	 *
+	 * @param adapter      the adapter to notify
+	 * @param items        the initial items
+	 * @param diffCallback tells if two items are the same message, even if one is provisional
+	 */
+	public BacklogWindow(RecyclerView.Adapter<?> adapter, List<T> items, DiffUtil.ItemCallback<T> diffCallback)
+	{
+		this(new AdapterListUpdateCallback(adapter), items, diffCallback, new Handler(Looper.getMainLooper())::post, sharedDiffExecutor);
+	}
+
+	/**
+	 * Creates a window.
+	 *
+	 * @param updateCallback gets the changes of the items
+	 * @param items          the initial items
+	 * @param diffCallback   tells if two items are the same message, even if one is provisional
+	 * @param mainExecutor   runs the updates on the main thread
+	 * @param diffExecutor   computes the differences in the background
+	 */
+	BacklogWindow(ListUpdateCallback updateCallback, List<T> items, DiffUtil.ItemCallback<T> diffCallback, Executor mainExecutor, Executor diffExecutor)
+	{
+		this.updateCallback = updateCallback;
+		this.items = new ArrayList<>(items);
+		this.diffCallback = diffCallback;
+		this.mainExecutor = mainExecutor;
+		this.diffExecutor = diffExecutor;
+	}
+
+	public void setPageLoader(PageLoader<T> pageLoader)
+	{
+		this.pageLoader = pageLoader;
+	}
+
+	/**
+	 * Sets a listener that gets the items when they're added to the window.
+	 */
+	public void setAddedItemsListener(Consumer<List<T>> addedItemsListener)
+	{
+		this.addedItemsListener = addedItemsListener;
+	}
+
+	public int size()
+	{
+		return items.size();
+	}
+
+	public T get(int position)
+	{
+		return items.get(position);
+	}
+
+	public List<T> getItems()
+	{
+		return Collections.unmodifiableList(items);
+	}
+
+	/**
+	 * Adds messages that were just received.
+	 *
+	 * @param newItems the messages, in the order they arrived
+	 */
+	public void addLive(List<T> newItems)
+	{
+		if (newItems.isEmpty())
+		{
+			return;
+		}
+		if (holdIfReplacing(() -> addLive(newItems)))
+		{
+			return;
+		}
+		if (hasNewer)
+		{
+			// The end of the conversation isn't in the window, add them when we get there
+			detachedLiveItems.addAll(newItems);
+			return;
+		}
+		var start = items.size();
+		items.addAll(newItems);
+		provisionalCount += newItems.size();
+		notifyItemsAdded(newItems);
+		updateCallback.onInserted(start, newItems.size());
+		scheduleUpdate();
+	}
+
+	/**
+	 * Adds messages fetched from the backlog. They replace the live messages received
+	 * in the meantime because those are part of the backlog too.
+	 *
+	 * @param newItems the backlogs, sorted by creation time
+	 */
+	public void addSynced(List<T> newItems)
+	{
+		if (holdIfReplacing(() -> addSynced(newItems)))
+		{
+			return;
+		}
+		if (hasNewer)
+		{
+			// They're in the store now, so they'll be loaded when scrolling down
+			detachedLiveItems.clear();
+			return;
+		}
+		if (provisionalCount == 0)
+		{
+			if (!newItems.isEmpty())
+			{
+				var start = items.size();
+				items.addAll(newItems);
+				notifyItemsAdded(newItems);
+				updateCallback.onInserted(start, newItems.size());
+				scheduleUpdate();
+			}
+			return;
+		}
+		replaceFrom(items.size() - provisionalCount, newItems, () -> provisionalCount = 0);
+	}
+
+	/**
+	 * Replaces all the items, for example when the backlog is fetched again.
+	 *
+	 * @param newItems the backlogs, sorted by creation time
+	 */
+	public void replaceAll(List<T> newItems)
+	{
+		if (holdIfReplacing(() -> replaceAll(newItems)))
+		{
+			return;
+		}
+		// Pages being loaded belong to the previous items
+		pageGeneration++;
+		loading = false;
+		replaceFrom(0, newItems, () -> {
+			provisionalCount = 0;
+			detachedLiveItems.clear();
+			hasOlder = true;
+			hasNewer = false;
+		});
+	}
+
+	/**
+	 * Tells which items are visible. Call it from the RecyclerView's scroll listener.
+	 *
+	 * @param firstVisible the first visible position
+	 * @param lastVisible  the last visible position
+	 */
+	public void onScrolled(int firstVisible, int lastVisible)
+	{
+		this.firstVisible = firstVisible;
+		this.lastVisible = lastVisible;
+		scheduleUpdate();
+	}
+
+	/**
+	 * The RecyclerView doesn't allow changes while it's scrolling or computing
+	 * a layout, so they're done later.
+	 */
+	private void scheduleUpdate()
+	{
+		if (!updatePending)
+		{
+			updatePending = true;
+			mainExecutor.execute(this::update);
+		}
+	}
+
+	private void update()
+	{
+		updatePending = false;
+
+		if (firstVisible < 0 || replacing)
+		{
+			return;
+		}
+
+		trim();
+
+		if (loading || pageLoader == null || items.isEmpty())
+		{
+			return;
+		}
+
+		var loadGeneration = pageGeneration;
+		if (hasOlder && firstVisible <= PREFETCH_DISTANCE)
+		{
+			loading = true;
+			pageLoader.loadOlder(items.get(0), olderItems -> addPage(loadGeneration, () -> addOlder(olderItems)));
+		}
+		else if (hasNewer && lastVisible >= items.size() - 1 - PREFETCH_DISTANCE)
+		{
+			loading = true;
+			// Provisional items don't have the server's time
+			pageLoader.loadNewer(items.get(items.size() - 1 - provisionalCount), newerItems -> addPage(loadGeneration, () -> addNewer(newerItems)));
+		}
+	}
+
+	private void addPage(int loadGeneration, Runnable addition)
+	{
+		if (loadGeneration != pageGeneration)
+		{
+			return;
+		}
+		if (holdIfReplacing(() -> addPage(loadGeneration, addition)))
+		{
+			return;
+		}
+		addition.run();
+	}
+
+	private void addOlder(List<T> olderItems)
+	{
+		loading = false;
+		if (olderItems == null)
+		{
+			return;
+		}
+		if (olderItems.isEmpty())
+		{
+			hasOlder = false;
+			return;
+		}
+		items.addAll(0, olderItems);
+		notifyItemsAdded(olderItems);
+		updateCallback.onInserted(0, olderItems.size());
+		firstVisible += olderItems.size();
+		lastVisible += olderItems.size();
+		scheduleUpdate();
+	}
+
+	private void addNewer(List<T> newerItems)
+	{
+		loading = false;
+		if (newerItems == null)
+		{
+			return;
+		}
+		var start = items.size();
+		items.addAll(newerItems);
+		if (newerItems.isEmpty())
+		{
+			hasNewer = false;
+			items.addAll(detachedLiveItems);
+			provisionalCount = detachedLiveItems.size();
+			detachedLiveItems.clear();
+		}
+		if (items.size() > start)
+		{
+			notifyItemsAdded(items.subList(start, items.size()));
+			updateCallback.onInserted(start, items.size() - start);
+		}
+		scheduleUpdate();
+	}
+
+	/**
+	 * Replaces the items from a position to the end. The difference is computed in the
+	 * background and the other changes are held until it's applied.
+	 *
+	 * @param start     the position of the first item to replace
+	 * @param newItems  the new items
+	 * @param onApplied called once the items are replaced
+	 */
+	private void replaceFrom(int start, List<T> newItems, Runnable onApplied)
+	{
+		replacing = true;
+		var oldItems = new ArrayList<>(items.subList(start, items.size()));
+		diffExecutor.execute(() -> {
+			var diffResult = DiffUtil.calculateDiff(new ListDiffCallback<>(oldItems, newItems, diffCallback));
+			mainExecutor.execute(() -> applyReplacement(start, newItems, diffResult, onApplied));
+		});
+	}
+
+	private void applyReplacement(int start, List<T> newItems, DiffUtil.DiffResult diffResult, Runnable onApplied)
+	{
+		var tail = items.subList(start, items.size());
+		tail.clear();
+		tail.addAll(newItems);
+		onApplied.run();
+		notifyItemsAdded(newItems);
+		diffResult.dispatchUpdatesTo(new OffsetUpdateCallback(updateCallback, start));
+		replacing = false;
+
+		// A held change can start another replacement, the ones after it are then held again
+		var changes = new ArrayList<>(heldChanges);
+		heldChanges.clear();
+		changes.forEach(Runnable::run);
+		scheduleUpdate();
+	}
+
+	/**
+	 * Holds a change while a replacement is being diffed, since the diff is made against the current items.
+	 *
+	 * @return true if the change was held
+	 */
+	private boolean holdIfReplacing(Runnable change)
+	{
+		if (replacing)
+		{
+			heldChanges.add(change);
+			return true;
+		}
+		return false;
+	}
+
+	private void notifyItemsAdded(List<T> addedItems)
+	{
+		if (addedItemsListener != null)
+		{
+			addedItemsListener.accept(addedItems);
+		}
+	}
+
+	/**
+	 * Drops the items that are far from the visible ones.
+	 */
+	private void trim()
+	{
+		var excess = items.size() - MAXIMUM_SIZE;
+		if (excess <= 0)
+		{
+			return;
+		}
+
+		var fromStart = Math.min(excess, firstVisible - KEEP_DISTANCE);
+		if (fromStart > 0)
+		{
+			items.subList(0, fromStart).clear();
+			updateCallback.onRemoved(0, fromStart);
+			hasOlder = true;
+			firstVisible -= fromStart;
+			lastVisible -= fromStart;
+			excess -= fromStart;
+		}
+
+		var fromEnd = Math.min(excess, items.size() - 1 - lastVisible - KEEP_DISTANCE);
+		// The provisional items go all together, those left behind couldn't be replaced by the sync
+		if (fromEnd > 0 && fromEnd >= provisionalCount)
+		{
+			var start = items.size() - fromEnd;
+			detachedLiveItems.addAll(0, items.subList(items.size() - provisionalCount, items.size()));
+			provisionalCount = 0;
+			items.subList(start, items.size()).clear();
+			updateCallback.onRemoved(start, fromEnd);
+			hasNewer = true;
+		}
+	}
+
+	private static class ListDiffCallback<T> extends DiffUtil.Callback
+	{
+		private final List<T> oldItems;
+		private final List<T> newItems;
+		private final DiffUtil.ItemCallback<T> itemCallback;
+
+		private ListDiffCallback(List<T> oldItems, List<T> newItems, DiffUtil.ItemCallback<T> itemCallback)
+		{
+			this.oldItems = oldItems;
+			this.newItems = newItems;
+			this.itemCallback = itemCallback;
+		}
+
+		@Override
+		public int getOldListSize()
+		{
+			return oldItems.size();
+		}
+
+		@Override
+		public int getNewListSize()
+		{
+			return newItems.size();
+		}
+
+		@Override
+		public boolean areItemsTheSame(int oldItemPosition, int newItemPosition)
+		{
+			return itemCallback.areItemsTheSame(oldItems.get(oldItemPosition), newItems.get(newItemPosition));
+		}
+
+		@Override
+		public boolean areContentsTheSame(int oldItemPosition, int newItemPosition)
+		{
+			return itemCallback.areContentsTheSame(oldItems.get(oldItemPosition), newItems.get(newItemPosition));
+		}
+	}
+
+	/**
+	 * Sends the updates of a part of the window.
+	 */
+	private static class OffsetUpdateCallback implements ListUpdateCallback
+	{
+		private final ListUpdateCallback updateCallback;
+		private final int offset;
+
+		private OffsetUpdateCallback(ListUpdateCallback updateCallback, int offset)
+		{
+			this.updateCallback = updateCallback;
+			this.offset = offset;
+		}
+
+		@Override
+		public void onInserted(int position, int count)
+		{
+			updateCallback.onInserted(offset + position, count);
+		}
+
+		@Override
+		public void onRemoved(int position, int count)
+		{
+			updateCallback.onRemoved(offset + position, count);
+		}
+
+		@Override
+		public void onMoved(int fromPosition, int toPosition)
+		{
+			updateCallback.onMoved(offset + fromPosition, offset + toPosition);
+		}
+
+		@Override
+		public void onChanged(int position, int count, @Nullable Object payload)
+		{
+			updateCallback.onChanged(offset + position, count, payload);
+		}
+	}
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright (c) 2025 by David Gerber - https://zapek.com
+ *
+ * This file is part of Xeres-Android.
+ *
+ * Xeres-Android is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Xeres-Android is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Xeres-Android.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.xeres.mobile.util;
+
+import android.graphics.Bitmap;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * Keeps mutable bitmaps that aren't used anymore so that they can be decoded into with inBitmap.
+ * The bitmaps are bucketed by config and size class (4 classes per power of 2) so that finding one
+ * that is big enough doesn't need a scan. The oldest bitmaps are dropped when the pool is full.
+ * <p>
+ * Displayed bitmaps are counted with {@link #acquire(Bitmap)} and {@link #release(Bitmap)}. One that
+ * is put while displayed is only pooled once it's released.
+ */
+public class BitmapPool
+{
+	private static final int CLASSES_PER_POWER = 4;
+	private static final int CLASS_SHIFT = 2; // log2(CLASSES_PER_POWER)
+
+	private final long maxSize;
+	private final Map<Integer, ArrayDeque<Bitmap>> buckets = new HashMap<>();
+	private final Set<Bitmap> order = new LinkedHashSet<>();
+	private long size;
+
+	// Weak so that a view that goes away without releasing doesn't keep its bitmap alive
+	private final Map<Bitmap, Integer> references = new WeakHashMap<>();
+	private final Set<Bitmap> releasePending = Collections.newSetFromMap(new WeakHashMap<>());
+
+	private int hits;
+	private int misses;
+
+	/**
+	 * Creates a pool.
+	 *
+	 * @param maxSize the maximum size of all the bitmaps, in bytes
+	 */
+	public BitmapPool(long maxSize)
+	{
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Adds a bitmap that isn't in the cache anymore. Immutable bitmaps are ignored. If the
+	 * bitmap is displayed, it's added once it's released.
+	 */
+	public void put(Bitmap bitmap)
+	{
+		if (bitmap == null || bitmap.isRecycled() || !bitmap.isMutable() || bitmap.getConfig() == null)
+		{
+			return;
+		}
+		var byteCount = bitmap.getAllocationByteCount();
+		if (byteCount > maxSize)
+		{
+			return;
+		}
+
+		synchronized (this)
+		{
+			if (references.containsKey(bitmap))
+			{
+				releasePending.add(bitmap);
+				return;
+			}
+			if (!order.add(bitmap))
+			{
+				return;
+			}
+			// A bitmap of a class is at least as big as the class size
+			buckets.computeIfAbsent(getKey(bitmap.getConfig(), getFloorClass(byteCount)), key -> new ArrayDeque<>()).addLast(bitmap);
+			size += byteCount;
+			trimToSize(maxSize);
+		}
+	}
+
+	/**
+	 * Gets a bitmap that can be decoded into.
+	 *
+	 * @param config    the config of the decoded image
+	 * @param byteCount the size of the decoded image, in bytes
+	 * @return a bitmap with at least byteCount bytes, or null
+	 */
+	public synchronized Bitmap get(Bitmap.Config config, int byteCount)
+	{
+		var sizeClass = getCeilingClass(byteCount);
+		// The next class is tried too because the wasted memory is still bounded
+		for (var i = 0; i < 2; i++)
+		{
+			var bucket = buckets.get(getKey(config, sizeClass + i));
+			if (bucket != null && !bucket.isEmpty())
+			{
+				// The most recent one is taken, the oldest ones are the ones to drop
+				var bitmap = bucket.pollLast();
+				order.remove(bitmap);
+				size -= bitmap.getAllocationByteCount();
+				hits++;
+				return bitmap;
+			}
+		}
+		misses++;
+		return null;
+	}
+
+	/**
+	 * Marks a bitmap as displayed, it won't be pooled until it's released.
+	 */
+	public synchronized void acquire(Bitmap bitmap)
+	{
+		references.merge(bitmap, 1, Integer::sum);
+	}
+
+	/**
+	 * Tells that a bitmap isn't displayed anymore. It's pooled if it was put in between.
+	 */
+	public synchronized void release(Bitmap bitmap)
+	{
+		var count = references.get(bitmap);
+		if (count == null)
+		{
+			return;
+		}
+		if (count > 1)
+		{
+			references.put(bitmap, count - 1);
+			return;
+		}
+		references.remove(bitmap);
+		if (releasePending.remove(bitmap))
+		{
+			put(bitmap);
+		}
+	}
+
+	public synchronized void clear()
+	{
+		trimToSize(0);
+	}
+
+	public synchronized void trimToSize(long maxSize)
+	{
+		var iterator = order.iterator();
+		while (size > maxSize && iterator.hasNext())
+		{
+			var bitmap = iterator.next();
+			iterator.remove();
+			var byteCount = bitmap.getAllocationByteCount();
+			// The oldest bitmap of the pool is also the oldest one of its bucket
+			var key = getKey(bitmap.getConfig(), getFloorClass(byteCount));
+			var bucket = buckets.get(key);
+			bucket.pollFirst();
+			if (bucket.isEmpty())
+			{
+				buckets.remove(key);
+			}
+			size -= byteCount;
+		}
+	}
+
+	public long getMaxSize()
+	{
+		return maxSize;
+	}
+
+	public synchronized long getSize()
+	{
+		return size;
+	}
+
+	public synchronized int getHits()
+	{
+		return hits;
+	}
+
+	public synchronized int getMisses()
+	{
+		return misses;
+	}
+
+	private static int getKey(Bitmap.Config config, int sizeClass)
+	{
+		return config.ordinal() << 16 | sizeClass;
+	}
+
+	/**
+	 * Gets the biggest class whose size is not above byteCount.
+	 */
+	static int getFloorClass(int byteCount)
+	{
+		var power = 31 - Integer.numberOfLeadingZeros(byteCount);
+		if (power < CLASS_SHIFT)
+		{
+			return power << CLASS_SHIFT;
+		}
+		var step = (byteCount >> (power - CLASS_SHIFT)) & (CLASSES_PER_POWER - 1);
+		return power << CLASS_SHIFT | step;
+	}
+
+	/**
+	 * Gets the smallest class whose size is not below byteCount.
+	 */
+	static int getCeilingClass(int byteCount)
+	{
+		if (byteCount <= CLASSES_PER_POWER)
+		{
+			return getFloorClass(CLASSES_PER_POWER);
+		}
+		var sizeClass = getFloorClass(byteCount);
+		return getClassSize(sizeClass) < byteCount ? sizeClass + 1 : sizeClass;
+	}
+
+	static long getClassSize(int sizeClass)
+	{
+		var power = sizeClass >> CLASS_SHIFT;
+		var step = sizeClass & (CLASSES_PER_POWER - 1);
+		if (power < CLASS_SHIFT)
+		{
+			return 1L << power;
+		}
+		return (1L << power) + ((long) step << (power - CLASS_SHIFT));
+	}
+}
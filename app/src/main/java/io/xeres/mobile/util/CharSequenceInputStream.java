@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2025 by David Gerber - https://zapek.com
+ *
+ * This file is part of Xeres-Android.
+ *
+ * Xeres-Android is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Xeres-Android is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Xeres-Android.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.xeres.mobile.util;
+
+import java.io.InputStream;
+
+/**
+ * Reads the characters of an ASCII text as bytes, without copying the text. Meant to be wrapped
+ * in a Base64InputStream to decode data: URLs while they're being read.
+ */
+public class CharSequenceInputStream extends InputStream
+{
+	private final CharSequence source;
+	private final int end;
+	private int position;
+
+	public CharSequenceInputStream(CharSequence source, int start, int end)
+	{
+		this.source = source;
+		this.end = end;
+		position = start;
+	}
+
+	@Override
+	public int read()
+	{
+		if (position >= end)
+		{
+			return -1;
+		}
+		return source.charAt(position++) & 0xff;
+	}
+
+	@Override
+	public int read(byte[] buffer, int offset, int length)
+	{
+		if (length == 0)
+		{
+			return 0;
+		}
+		if (position >= end)
+		{
+			return -1;
+		}
+		var count = Math.min(length, end - position);
+		for (var i = 0; i < count; i++)
+		{
+			buffer[offset + i] = (byte) source.charAt(position++);
+		}
+		return count;
+	}
+
+	@Override
+	public long skip(long n)
+	{
+		var count = (int) Math.max(0, Math.min(n, end - position));
+		position += count;
+		return count;
+	}
+
+	@Override
+	public int available()
+	{
+		return end - position;
+	}
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2025 by David Gerber - https://zapek.com
+ *
+ * This file is part of Xeres-Android.
+ *
+ * Xeres-Android is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Xeres-Android is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Xeres-Android.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.xeres.mobile.util;
+
+import android.content.Context;
+import android.text.PrecomputedText;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Renders chat lines and measures their text in the background, as soon as they're
+ * added to an adapter, so that binding them only has to attach the result.
+ *
+ * @param <T> the backlog type
+ */
+public class ChatLinePrerenderer<T>
+{
+	private static final String TAG = "ChatLinePrerenderer";
+
+	// Shared so that there's no thread to stop
+	private static final ExecutorService prerenderExecutor = Executors.newSingleThreadExecutor();
+
+	public interface Renderer<T>
+	{
+		ChatProcessor.RenderedLine render(ChatProcessor processor, T item);
+	}
+
+	private final Context context;
+	private final Renderer<T> renderer;
+	private volatile PrecomputedText.Params textMetricsParams;
+
+	public ChatLinePrerenderer(Context context, Renderer<T> renderer)
+	{
+		this.context = context;
+		this.renderer = renderer;
+	}
+
+	/**
+	 * Sets the parameters of the text views the lines will be displayed in.
+	 *
+	 * @param textMetricsParams the parameters, from {@link android.widget.TextView#getTextMetricsParams()}
+	 */
+	public void setTextMetricsParams(PrecomputedText.Params textMetricsParams)
+	{
+		this.textMetricsParams = textMetricsParams;
+	}
+
+	/**
+	 * Queues lines for rendering. Must be called from the main thread.
+	 *
+	 * @param items the lines
+	 */
+	public void prerender(List<T> items)
+	{
+		if (items.isEmpty())
+		{
+			return;
+		}
+		var copy = new ArrayList<>(items);
+		prerenderExecutor.execute(() -> {
+			var chatProcessor = ChatProcessor.getInstance(context);
+			for (var item : copy)
+			{
+				try
+				{
+					var renderedLine = renderer.render(chatProcessor, item);
+					var params = textMetricsParams;
+					if (params != null && !renderedLine.isPrecomputedFor(params))
+					{
+						renderedLine.setPrecomputedText(PrecomputedText.create(renderedLine.getText(), params));
+					}
+				}
+				catch (RuntimeException e)
+				{
+					Log.e(TAG, "Failed to prerender line: ", e);
+				}
+			}
+		});
+	}
+}
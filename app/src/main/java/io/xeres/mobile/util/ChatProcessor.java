@@ -20,10 +20,13 @@
 package io.xeres.mobile.util;
 
 import android.content.Context;
+import android.content.res.Configuration;
+import android.os.SystemClock;
+import android.text.PrecomputedText;
 import android.text.SpannableString;
 import android.text.SpannableStringBuilder;
-import android.text.TextUtils;
 import android.text.style.ForegroundColorSpan;
+import android.util.Log;
 import android.view.View;
 import android.widget.TextView;
 
@@ -33,23 +36,83 @@ import androidx.core.content.ContextCompat;
 import org.commonmark.node.Heading;
 import org.commonmark.node.HtmlInline;
 import org.commonmark.node.ThematicBreak;
-import org.jsoup.Jsoup;
 
 import io.noties.markwon.AbstractMarkwonPlugin;
 import io.noties.markwon.Markwon;
 import io.noties.markwon.MarkwonVisitor;
 import io.noties.markwon.ext.strikethrough.StrikethroughPlugin;
 import io.noties.markwon.linkify.LinkifyPlugin;
+import io.xeres.mobile.Application;
 import io.xeres.mobile.view.AsyncImageView;
 
+/**
+ * Renders chat lines. There's one instance for the whole process because building Markwon
+ * with its plugins is expensive. It can be used from any thread.
+ */
 public class ChatProcessor
 {
+	private static final String TAG = "ChatProcessor";
+
+	private static volatile ChatProcessor instance;
+	private static long buildTime;
+
 	private final Context context;
 	private final Markwon markwon;
+	private final RenderCache renderCache;
+
+	/**
+	 * Gets the processor, building it if needed. If it's being built on another thread, waits for it.
+	 */
+	public static ChatProcessor getInstance(Context context)
+	{
+		var processor = instance;
+		if (processor == null)
+		{
+			synchronized (ChatProcessor.class)
+			{
+				processor = instance;
+				if (processor == null)
+				{
+					var start = SystemClock.elapsedRealtime();
+					processor = new ChatProcessor(context.getApplicationContext());
+					buildTime = SystemClock.elapsedRealtime() - start;
+					Log.d(TAG, "Built in " + buildTime + " ms");
+					instance = processor;
+				}
+			}
+		}
+		return processor;
+	}
 
-	public ChatProcessor(Context context)
+	/**
+	 * Builds the processor in the background, so that the first chat doesn't have to.
+	 */
+	public static void prewarm(Context context)
+	{
+		var applicationContext = context.getApplicationContext();
+		var thread = new Thread(() -> getInstance(applicationContext), "ChatProcessorPrewarm");
+		thread.setPriority(Thread.MIN_PRIORITY);
+		thread.start();
+	}
+
+	/**
+	 * Gets how long building the processor took.
+	 *
+	 * @return the time in milliseconds, 0 if it's not built yet
+	 */
+	public static long getBuildTime()
+	{
+		synchronized (ChatProcessor.class)
+		{
+			return buildTime;
+		}
+	}
+
+	private ChatProcessor(Context context)
 	{
 		this.context = context;
+		var application = Application.getInstance();
+		renderCache = application != null ? application.getRenderCache() : null;
 		markwon = Markwon.builder(context)
 				.usePlugin(StrikethroughPlugin.create())
 				.usePlugin(LinkifyPlugin.create(true))
@@ -71,39 +134,138 @@ public class ChatProcessor
 		}).build();
 	}
 
-	public void processLine(String colorInput, String nickname, String message, boolean isOwn, TextView textView, AsyncImageView imageView)
+	/**
+	 * A chat line ready to be displayed.
+	 */
+	public static class RenderedLine
 	{
-		String data = null;
+		private final CharSequence text;
+		private final InlineImages.Image image;
+		private volatile PrecomputedText precomputedText;
 
-		var formattedNickname = "<" + nickname + ">";
+		private RenderedLine(CharSequence text, InlineImages.Image image)
+		{
+			this.text = text;
+			this.image = image;
+		}
+
+		public CharSequence getText()
+		{
+			return text;
+		}
+
+		public String getImageUrl()
+		{
+			return image != null ? image.getKey() : null;
+		}
+
+		/**
+		 * Sets the text with its layout measured, for when it's known which text view will display it.
+		 */
+		public void setPrecomputedText(PrecomputedText precomputedText)
+		{
+			this.precomputedText = precomputedText;
+		}
+
+		public boolean isPrecomputedFor(PrecomputedText.Params params)
+		{
+			var precomputed = precomputedText;
+			return precomputed != null && precomputed.getParams().equals(params);
+		}
 
-		var img = Jsoup.parse(message).selectFirst("img");
-		if (img != null)
+		private CharSequence getTextFor(TextView textView)
 		{
-			var imgUrl = img.absUrl("src");
-			if (!TextUtils.isEmpty(imgUrl) && imgUrl.startsWith("data:"))
+			var precomputed = precomputedText;
+			if (precomputed != null && precomputed.getParams().equals(textView.getTextMetricsParams()))
 			{
-				data = imgUrl;
+				return precomputed;
 			}
+			return text;
+		}
+	}
+
+	/**
+	 * An item together with its rendered line.
+	 *
+	 * @param <T> the type of the item
+	 */
+	public static class Prerendered<T>
+	{
+		private final T item;
+		private final RenderedLine renderedLine;
+
+		public Prerendered(T item, RenderedLine renderedLine)
+		{
+			this.item = item;
+			this.renderedLine = renderedLine;
 		}
-		else if (message.startsWith("![](data:"))
+
+		public T getItem()
 		{
-			data = message.substring(4, message.indexOf(" ")); // This is not very great...
+			return item;
 		}
 
-		if (data != null)
+		public RenderedLine getRenderedLine()
 		{
-			imageView.setImageUrl(data);
-			imageView.setVisibility(View.VISIBLE);
-			message = "";
+			return renderedLine;
 		}
-		else
+	}
+
+	/**
+	 * Renders a line. This doesn't touch any view so it can be done outside the main thread.
+	 */
+	public RenderedLine renderLine(String colorInput, String nickname, String message, boolean isOwn)
+	{
+		if (renderCache == null)
 		{
-			imageView.setImageUrl(null);
-			imageView.setVisibility(View.GONE);
+			return render(colorInput, nickname, message, isOwn);
+		}
+
+		// The nickname color depends on the night mode
+		var key = (context.getResources().getConfiguration().uiMode & Configuration.UI_MODE_NIGHT_MASK) + "\u0000" + colorInput + "\u0000" + nickname + "\u0000" + isOwn + "\u0000" + message.hashCode();
+		var renderedLine = renderCache.getLine(key, message);
+		if (renderedLine == null)
+		{
+			renderedLine = render(colorInput, nickname, message, isOwn);
+			renderCache.addLine(key, message, renderedLine);
+		}
+		return renderedLine;
+	}
+
+	private RenderedLine render(String colorInput, String nickname, String message, boolean isOwn)
+	{
+		InlineImages.Image image = null;
+
+		var formattedNickname = "<" + nickname + ">";
+
+		// Inline images are referred to by a key so that the data isn't copied around
+		CharSequence spanMessage;
+		var sniffed = MessageSniffer.sniff(message);
+		switch (sniffed.getKind())
+		{
+			case PLAIN:
+				spanMessage = message;
+				break;
+
+			case INLINE_IMAGE:
+				image = InlineImages.register(message, sniffed.getImageStart(), sniffed.getImageEnd());
+				if (image != null)
+				{
+					// The image is shown on its own, only the text around it is rendered
+					var text = (message.substring(0, sniffed.getElementStart()) + message.substring(sniffed.getElementEnd())).trim();
+					spanMessage = text.isEmpty() ? "" : markwon.render(markwon.parse(text));
+				}
+				else
+				{
+					spanMessage = markwon.render(markwon.parse(message));
+				}
+				break;
+
+			default:
+				spanMessage = markwon.render(markwon.parse(message));
+				break;
 		}
 
-		var spanMessage = markwon.render(markwon.parse(message));
 		var spanNickname = new SpannableString(formattedNickname + " ");
 		if (!isOwn)
 		{
@@ -115,6 +277,30 @@ public class ChatProcessor
 		combined.append(spanNickname);
 		combined.append(spanMessage);
 
-		textView.setText(combined);
+		return new RenderedLine(combined, image);
+	}
+
+	/**
+	 * Gets the Markwon instance, for example to highlight the markdown of an editor.
+	 */
+	public Markwon getMarkwon()
+	{
+		return markwon;
+	}
+
+	public void bindLine(RenderedLine renderedLine, TextView textView, AsyncImageView imageView)
+	{
+		if (renderedLine.image != null)
+		{
+			// The line might come from the render cache, long after the image was registered
+			imageView.setImageUrl(InlineImages.keep(renderedLine.image).getKey());
+			imageView.setVisibility(View.VISIBLE);
+		}
+		else
+		{
+			imageView.setImageUrl(null);
+			imageView.setVisibility(View.GONE);
+		}
+		textView.setText(renderedLine.getTextFor(textView));
 	}
 }
@@ -0,0 +1,306 @@
+/*
+ * Copyright (c) 2025 by David Gerber - https://zapek.com
+ *
+ * This file is part of Xeres-Android.
+ *
+ * Xeres-Android is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Xeres-Android is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Xeres-Android.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.xeres.mobile.util;
+
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Disk cache of encoded images, behind the memory cache. Files are named after the
+ * SHA-1 of their URL and the time they were written, and the least recently used ones are
+ * removed when the cache is full. The modification time of a file is when it was last read,
+ * so that the order survives a restart.
+ * Entries older than the revalidation delay are still returned but should be fetched again.
+ * It can be used from any thread.
+ */
+public class DiskImageCache
+{
+	private static final String TAG = "DiskImageCache";
+
+	public static final long DEFAULT_SIZE = 20L * 1024 * 1024;
+	public static final long REVALIDATION_DELAY = 24L * 60 * 60 * 1000;
+
+	private final File directory;
+	private final long maxSize;
+	private static class Entry
+	{
+		private final String fileName;
+		private final long length;
+		private final long written;
+
+		private Entry(String fileName, long length, long written)
+		{
+			this.fileName = fileName;
+			this.length = length;
+			this.written = written;
+		}
+	}
+
+	private final Map<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true); // Access order, so the eldest is the least recently used
+	private long size;
+	private boolean initialized;
+
+	public DiskImageCache(File directory, long maxSize)
+	{
+		this.directory = directory;
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Gets the data of an image.
+	 *
+	 * @param url the URL of the image
+	 * @return the data or null if it's not in the cache
+	 */
+	public byte[] getImageData(String url)
+	{
+		var name = getName(url);
+		File file;
+		synchronized (this)
+		{
+			initializeIfNeeded();
+			var entry = entries.get(name); // Makes it the most recently used
+			if (entry == null)
+			{
+				return null;
+			}
+			file = new File(directory, entry.fileName);
+		}
+		try
+		{
+			var data = Files.readAllBytes(file.toPath());
+			//noinspection ResultOfMethodCallIgnored
+			file.setLastModified(System.currentTimeMillis());
+			return data;
+		}
+		catch (IOException e)
+		{
+			Log.d(TAG, "Failed to read " + url + ": " + e);
+			remove(name);
+			return null;
+		}
+	}
+
+	/**
+	 * Tells if an image should be fetched again.
+	 *
+	 * @param url the URL of the image
+	 * @return true if the image is older than the revalidation delay
+	 */
+	public boolean isStale(String url)
+	{
+		var name = getName(url);
+		Entry entry;
+		synchronized (this)
+		{
+			initializeIfNeeded();
+			entry = entries.get(name); // Only checked after a read, so it's a use anyway
+		}
+		return entry == null || System.currentTimeMillis() - entry.written > REVALIDATION_DELAY;
+	}
+
+	public void addImageData(String url, byte[] data)
+	{
+		if (data.length > maxSize / 8)
+		{
+			return; // Would flush too much of the cache
+		}
+		addImageData(url, new ByteArrayInputStream(data));
+	}
+
+	/**
+	 * Adds an image while it's being read, so that it doesn't have to be in memory.
+	 *
+	 * @param url the URL of the image
+	 * @param in  the data, closed when done
+	 */
+	public void addImageData(String url, InputStream in)
+	{
+		var name = getName(url);
+		var written = System.currentTimeMillis();
+		var file = new File(directory, name + "-" + written);
+		var tempFile = new File(directory, name + ".tmp");
+		synchronized (this)
+		{
+			initializeIfNeeded();
+		}
+		long length = 0;
+		try (in; var out = new FileOutputStream(tempFile))
+		{
+			var buffer = new byte[8192];
+			int read;
+			while ((read = in.read(buffer)) != -1)
+			{
+				length += read;
+				if (length > maxSize / 8)
+				{
+					//noinspection ResultOfMethodCallIgnored
+					tempFile.delete();
+					return; // Would flush too much of the cache
+				}
+				out.write(buffer, 0, read);
+			}
+		}
+		catch (IOException e)
+		{
+			Log.d(TAG, "Failed to write " + url + ": " + e);
+			//noinspection ResultOfMethodCallIgnored
+			tempFile.delete();
+			return;
+		}
+		synchronized (this)
+		{
+			if (!tempFile.renameTo(file))
+			{
+				//noinspection ResultOfMethodCallIgnored
+				tempFile.delete();
+				return;
+			}
+			var previous = entries.put(name, new Entry(file.getName(), length, written));
+			if (previous != null)
+			{
+				size -= previous.length;
+				if (!previous.fileName.equals(file.getName()))
+				{
+					//noinspection ResultOfMethodCallIgnored
+					new File(directory, previous.fileName).delete();
+				}
+			}
+			size += length;
+			trimToSize(maxSize);
+		}
+	}
+
+	public synchronized void clear()
+	{
+		initializeIfNeeded();
+		trimToSize(0L);
+	}
+
+	private synchronized void remove(String name)
+	{
+		var previous = entries.remove(name);
+		if (previous != null)
+		{
+			size -= previous.length;
+			//noinspection ResultOfMethodCallIgnored
+			new File(directory, previous.fileName).delete();
+		}
+	}
+
+	private void trimToSize(long targetSize)
+	{
+		var iterator = entries.entrySet().iterator();
+		while (size > targetSize && iterator.hasNext())
+		{
+			var entry = iterator.next().getValue();
+			//noinspection ResultOfMethodCallIgnored
+			new File(directory, entry.fileName).delete();
+			size -= entry.length;
+			iterator.remove();
+		}
+	}
+
+	/**
+	 * Builds the index from the files, the least recently used first.
+	 */
+	private void initializeIfNeeded()
+	{
+		if (initialized)
+		{
+			return;
+		}
+		initialized = true;
+
+		if (!directory.isDirectory() && !directory.mkdirs())
+		{
+			Log.e(TAG, "Failed to create " + directory);
+			return;
+		}
+		var files = directory.listFiles();
+		if (files == null)
+		{
+			return;
+		}
+		Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+		for (var file : files)
+		{
+			var separator = file.getName().indexOf('-');
+			var written = separator != -1 ? parseWritten(file.getName().substring(separator + 1)) : -1L;
+			if (written == -1L)
+			{
+				// Temporary files, or anything else that isn't ours
+				//noinspection ResultOfMethodCallIgnored
+				file.delete();
+				continue;
+			}
+			var name = file.getName().substring(0, separator);
+			var previous = entries.put(name, new Entry(file.getName(), file.length(), written));
+			if (previous != null)
+			{
+				// Left over by an interrupted replacement
+				size -= previous.length;
+				//noinspection ResultOfMethodCallIgnored
+				new File(directory, previous.fileName).delete();
+			}
+			size += file.length();
+		}
+		trimToSize(maxSize);
+		Log.d(TAG, "Disk cache has " + entries.size() + " images, " + size / 1024 + " KB");
+	}
+
+	private static long parseWritten(String value)
+	{
+		try
+		{
+			return Long.parseLong(value);
+		}
+		catch (NumberFormatException e)
+		{
+			return -1L;
+		}
+	}
+
+	private static String getName(String url)
+	{
+		try
+		{
+			var digest = MessageDigest.getInstance("SHA-1");
+			return Id.toString(digest.digest(url.getBytes(StandardCharsets.UTF_8)));
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -25,12 +25,6 @@ import android.graphics.BitmapFactory;
 import android.util.Log;
 import android.util.LruCache;
 
-import java.lang.ref.SoftReference;
-import java.util.Collections;
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.Set;
-
 /**
  * Class used to cache frequently used bitmaps
  *
@@ -39,7 +33,7 @@ import java.util.Set;
 public class ImageCache extends LruCache<String, Bitmap> {
 
 	private static int maxSize;
-	private final Set<SoftReference<Bitmap>> reusableBitmaps = Collections.synchronizedSet(new HashSet<>());
+	private final BitmapPool bitmapPool;
 
 	public static int calculateSize(Context context) {
 		int memClass = ((ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE)).getMemoryClass();
@@ -72,6 +66,7 @@ public class ImageCache extends LruCache<String, Bitmap> {
 
 	public ImageCache(int maxSize) {
 		super(maxSize);
+		bitmapPool = new BitmapPool(maxSize / 4);
 	}
 
 	@Override
@@ -96,51 +91,57 @@ public class ImageCache extends LruCache<String, Bitmap> {
 		return get(url);
 	}
 
+	/**
+	 * Gets a bitmap and marks it as displayed. Both are done under the pool's lock
+	 * so that an eviction can't pool the bitmap in between.
+	 */
+	public Bitmap acquireBitmap(String url) {
+		synchronized (bitmapPool)
+		{
+			Bitmap bitmap = get(url);
+			if (bitmap != null)
+			{
+				bitmapPool.acquire(bitmap);
+			}
+			return bitmap;
+		}
+	}
+
 	@Override
 	protected void entryRemoved(boolean evicted, String key, Bitmap oldValue, Bitmap newValue) {
-		reusableBitmaps.add(new SoftReference<>(oldValue));
+		if (evicted)
+		{
+			/* the pool keeps it aside until no view displays it */
+			bitmapPool.put(oldValue);
+		}
 	}
 
 	public Bitmap getReusableBitmap(BitmapFactory.Options options) {
-		Bitmap bitmap = null;
-
-		if (!reusableBitmaps.isEmpty())
+		/* the decoder rounds up */
+		int width = (options.outWidth + options.inSampleSize - 1) / options.inSampleSize;
+		int height = (options.outHeight + options.inSampleSize - 1) / options.inSampleSize;
+		if (options.inScaled && options.inDensity != 0 && options.inTargetDensity != 0)
 		{
-			synchronized (reusableBitmaps)
-			{
-				Iterator<SoftReference<Bitmap>> iterator = reusableBitmaps.iterator();
-				Bitmap item;
-
-				while (iterator.hasNext())
-				{
-					item = iterator.next().get();
-
-					if (item != null && item.isMutable())
-					{
-						if (canUseForInBitmap(item, options))
-						{
-							bitmap = item;
-
-							iterator.remove(); /* remove from reusable set */
-							break;
-						}
-					}
-					else
-					{
-						iterator.remove(); /* remove from the set if the reference has been cleared */
-					}
-				}
-			}
+			/* then scales by the densities, like BitmapFactory does */
+			float scale = (float) options.inTargetDensity / options.inDensity;
+			width = (int) (width * scale + 0.5f);
+			height = (int) (height * scale + 0.5f);
 		}
-		return bitmap;
+		Bitmap.Config config = options.inPreferredConfig != null ? options.inPreferredConfig : Bitmap.Config.ARGB_8888;
+		return bitmapPool.get(config, width * height * getBytesPerPixel(config));
 	}
 
-	private boolean canUseForInBitmap(Bitmap candidate, BitmapFactory.Options targetOptions) {
-        int width = targetOptions.outWidth / targetOptions.inSampleSize;
-        int height = targetOptions.outHeight / targetOptions.inSampleSize;
-        int byteCount = width * height * getBytesPerPixel(candidate.getConfig());
-        return byteCount <= candidate.getAllocationByteCount();
-    }
+	/**
+	 * Empties the cache and the pool of reusable bitmaps.
+	 */
+	public void clear() {
+		evictAll();
+		bitmapPool.clear();
+	}
+
+	public BitmapPool getBitmapPool() {
+		return bitmapPool;
+	}
 
 	private static int getBytesPerPixel(Bitmap.Config config) {
 		if (config == Bitmap.Config.ARGB_8888)
@@ -0,0 +1,280 @@
+/*
+ * Copyright (c) 2025 by David Gerber - https://zapek.com
+ *
+ * This file is part of Xeres-Android.
+ *
+ * Xeres-Android is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Xeres-Android is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Xeres-Android.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.xeres.mobile.util;
+
+import android.content.ContentResolver;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Base64;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Turns a shared image into a chat message in the background. The image is decoded at a
+ * sampled resolution then compressed with the best JPEG quality that fits in the size budget,
+ * getting smaller if even the lowest quality doesn't fit.
+ */
+public class ImageEncoder
+{
+	private static final String TAG = "ImageEncoder";
+
+	private static final int MINIMUM_QUALITY = 30;
+	private static final int MAXIMUM_QUALITY = 90;
+	private static final int MAXIMUM_DOWNSCALES = 3;
+	private static final float DOWNSCALE_FACTOR = 0.75f;
+
+	private static final ExecutorService encoderExecutor = Executors.newSingleThreadExecutor();
+
+	/**
+	 * All methods are called from the main thread.
+	 */
+	public interface Listener
+	{
+		void onProgress(int percent);
+
+		void onEncoded(String message);
+
+		void onError();
+	}
+
+	private final Handler handler = new Handler(Looper.getMainLooper());
+	private final ContentResolver contentResolver;
+	private final int maximumPixels;
+	private final int maximumEncodedSize;
+	private final Listener listener;
+	private Future<?> future;
+	private volatile boolean cancelled;
+	private int lastQuality;
+
+	/**
+	 * Creates an encoder.
+	 *
+	 * @param contentResolver    to read the images with
+	 * @param maximumPixels      the maximum number of pixels of the sent image
+	 * @param maximumEncodedSize the maximum size of the compressed image, before base64 which adds a third
+	 * @param listener           gets the progress and the result
+	 */
+	public ImageEncoder(ContentResolver contentResolver, int maximumPixels, int maximumEncodedSize, Listener listener)
+	{
+		this.contentResolver = contentResolver;
+		this.maximumPixels = maximumPixels;
+		this.maximumEncodedSize = maximumEncodedSize;
+		this.listener = listener;
+	}
+
+	public void encode(Uri uri)
+	{
+		future = encoderExecutor.submit(() -> {
+			try
+			{
+				var message = encodeMessage(uri);
+				post(() -> {
+					if (message != null)
+					{
+						listener.onEncoded(message);
+					}
+					else
+					{
+						listener.onError();
+					}
+				});
+			}
+			catch (FileNotFoundException e)
+			{
+				Log.e(TAG, "File not found: " + e.getMessage());
+				post(listener::onError);
+			}
+			catch (IOException e)
+			{
+				Log.e(TAG, "I/O error: " + e.getMessage());
+				post(listener::onError);
+			}
+			catch (OutOfMemoryError e)
+			{
+				Log.e(TAG, "Out of memory while encoding " + uri);
+				post(listener::onError);
+			}
+		});
+	}
+
+	/**
+	 * Stops the encoding. The listener won't be called anymore.
+	 */
+	public void cancel()
+	{
+		cancelled = true;
+		if (future != null)
+		{
+			future.cancel(false);
+		}
+	}
+
+	private String encodeMessage(Uri uri) throws IOException
+	{
+		var bitmap = decodeSampled(uri);
+		if (bitmap == null)
+		{
+			return null;
+		}
+		if (cancelled)
+		{
+			bitmap.recycle();
+			return null;
+		}
+		reportProgress(20);
+
+		bitmap = replaceBitmap(bitmap, BitmapUtils.getScaledBitmap(bitmap, maximumPixels));
+		bitmap = replaceBitmap(bitmap, BitmapUtils.rotateBitmapIfNeeded(bitmap, BitmapUtils.getImageOrientation(contentResolver, uri)));
+		reportProgress(30);
+
+		byte[] data = null;
+		var firstQuality = (MINIMUM_QUALITY + MAXIMUM_QUALITY) / 2;
+		for (var i = 0; i <= MAXIMUM_DOWNSCALES && !cancelled; i++)
+		{
+			data = compressToFit(bitmap, firstQuality, 30 + 60 * i / (MAXIMUM_DOWNSCALES + 1), 60 / (MAXIMUM_DOWNSCALES + 1));
+			if (data == null || data.length <= maximumEncodedSize)
+			{
+				break;
+			}
+			Log.d(TAG, "Doesn't fit even at quality " + MINIMUM_QUALITY + " (" + data.length + " bytes), scaling down");
+			// The smaller image is tried at the quality the search ended on first, instead of searching everything again
+			firstQuality = lastQuality;
+			bitmap = replaceBitmap(bitmap, Bitmap.createScaledBitmap(bitmap, Math.max((int) (bitmap.getWidth() * DOWNSCALE_FACTOR), 1), Math.max((int) (bitmap.getHeight() * DOWNSCALE_FACTOR), 1), true));
+		}
+		Log.d(TAG, "send size: " + (data != null ? data.length : 0) + " (" + bitmap.getWidth() + "x" + bitmap.getHeight() + ")");
+		bitmap.recycle();
+		if (data == null || cancelled)
+		{
+			return null;
+		}
+
+		var imageString = Base64.encodeToString(data, Base64.NO_WRAP);
+		reportProgress(100);
+		return "<img src=\"data:image/jpeg;base64," + imageString + "\"/>";
+	}
+
+	/**
+	 * Decodes the image at the smallest power of 2 subsampling that still has enough pixels.
+	 */
+	private Bitmap decodeSampled(Uri uri) throws IOException
+	{
+		var options = new BitmapFactory.Options();
+		options.inJustDecodeBounds = true;
+		try (var in = contentResolver.openInputStream(uri))
+		{
+			BitmapFactory.decodeStream(in, null, options);
+		}
+		if (options.outWidth <= 0 || options.outHeight <= 0)
+		{
+			return null;
+		}
+
+		var inSampleSize = 1;
+		while ((long) (options.outWidth / (inSampleSize * 2)) * (options.outHeight / (inSampleSize * 2)) >= maximumPixels)
+		{
+			inSampleSize *= 2;
+		}
+		options.inJustDecodeBounds = false;
+		options.inSampleSize = inSampleSize;
+		Log.d(TAG, "decoding " + options.outWidth + "x" + options.outHeight + " at 1/" + inSampleSize);
+		try (var in = contentResolver.openInputStream(uri))
+		{
+			return BitmapFactory.decodeStream(in, null, options);
+		}
+	}
+
+	/**
+	 * The intermediate bitmaps are big, they're freed as soon as they're not needed.
+	 */
+	private static Bitmap replaceBitmap(Bitmap oldBitmap, Bitmap newBitmap)
+	{
+		if (newBitmap != oldBitmap)
+		{
+			oldBitmap.recycle();
+		}
+		return newBitmap;
+	}
+
+	/**
+	 * Finds the highest quality that fits in the budget with a binary search. The quality
+	 * it ended on is kept in {@link #lastQuality}.
+	 *
+	 * @param firstQuality the quality to try first, the middle of the range for a full search
+	 * @return the smallest attempt if nothing fits
+	 */
+	private byte[] compressToFit(Bitmap bitmap, int firstQuality, int progressStart, int progressRange)
+	{
+		var output = new ByteArrayOutputStream();
+		byte[] best = null;
+		byte[] smallest = null;
+		var low = MINIMUM_QUALITY;
+		var high = MAXIMUM_QUALITY;
+		var quality = firstQuality;
+		var steps = 0;
+
+		while (low <= high && !cancelled)
+		{
+			lastQuality = quality;
+			output.reset();
+			bitmap.compress(Bitmap.CompressFormat.JPEG, quality, output);
+			var data = output.toByteArray();
+			if (data.length <= maximumEncodedSize)
+			{
+				best = data;
+				low = quality + 1;
+			}
+			else
+			{
+				high = quality - 1;
+			}
+			if (smallest == null || data.length < smallest.length)
+			{
+				smallest = data;
+			}
+			reportProgress(progressStart + Math.min(progressRange, progressRange * ++steps / 6)); // About 6 steps for 60 qualities
+			quality = (low + high) / 2;
+		}
+		return best != null ? best : smallest;
+	}
+
+	private void reportProgress(int percent)
+	{
+		post(() -> listener.onProgress(percent));
+	}
+
+	private void post(Runnable runnable)
+	{
+		handler.post(() -> {
+			if (!cancelled)
+			{
+				runnable.run();
+			}
+		});
+	}
+}
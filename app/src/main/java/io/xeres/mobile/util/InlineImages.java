@@ -0,0 +1,220 @@
+/*
+ * Copyright (c) 2025 by David Gerber - https://zapek.com
+ *
+ * This file is part of Xeres-Android.
+ *
+ * Xeres-Android is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Xeres-Android is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Xeres-Android.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.xeres.mobile.util;
+
+import android.util.Base64;
+import android.util.Base64InputStream;
+import android.util.LruCache;
+
+import java.io.InputStream;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Gives short keys to the images embedded in messages as data: URLs, so that they can be
+ * cached like remote images. The key is the SHA-1 of the base64 payload. Only the position of the
+ * payload in its message is kept, the data itself is never copied.
+ * <p>
+ * The most recent images are kept, the others stay known as long as their {@link Image} is
+ * referenced, for example by a rendered line.
+ */
+public final class InlineImages
+{
+	private static final String PREFIX = "inline:";
+	private static final int MAXIMUM_SIZE = 4 * 1024 * 1024; // In characters
+
+	/**
+	 * A registered image. Keep it to be able to load the image.
+	 */
+	public static final class Image
+	{
+		private final String key;
+		private final CharSequence source;
+		private final int start;
+		private final int end;
+
+		private Image(String key, CharSequence source, int start, int end)
+		{
+			this.key = key;
+			this.source = source;
+			this.start = start;
+			this.end = end;
+		}
+
+		public String getKey()
+		{
+			return key;
+		}
+	}
+
+	private static class ImageReference extends WeakReference<Image>
+	{
+		private final String key;
+
+		private ImageReference(Image image, ReferenceQueue<Image> queue)
+		{
+			super(image, queue);
+			key = image.key;
+		}
+	}
+
+	private static final LruCache<String, Image> recentImages = new LruCache<>(MAXIMUM_SIZE)
+	{
+		@Override
+		protected int sizeOf(String key, Image image)
+		{
+			// A bigger image is still kept until the next one
+			return Math.min(image.end - image.start, MAXIMUM_SIZE);
+		}
+	};
+
+	private static final Map<String, ImageReference> images = new HashMap<>();
+	private static final ReferenceQueue<Image> collectedImages = new ReferenceQueue<>();
+
+	private InlineImages()
+	{
+		throw new UnsupportedOperationException("Utility class");
+	}
+
+	public static boolean isInline(String url)
+	{
+		return url.startsWith(PREFIX);
+	}
+
+	/**
+	 * Registers an image.
+	 *
+	 * @param source the text containing the data: URL, usually the message
+	 * @param start  where the data: URL starts in the source
+	 * @param end    where the data: URL ends in the source
+	 * @return the image, or null if it's not a base64 data: URL
+	 */
+	public static Image register(CharSequence source, int start, int end)
+	{
+		var payloadStart = -1;
+		for (var i = start; i < end; i++)
+		{
+			if (source.charAt(i) == ',')
+			{
+				payloadStart = i + 1;
+				break;
+			}
+		}
+		if (payloadStart == -1 || !source.subSequence(start, payloadStart).toString().endsWith(";base64,"))
+		{
+			return null;
+		}
+
+		var key = PREFIX + digest(source, payloadStart, end);
+		var image = find(key);
+		if (image == null)
+		{
+			image = new Image(key, source, payloadStart, end);
+		}
+		return keep(image);
+	}
+
+	/**
+	 * Makes an image one of the most recent ones again, for when it's about to be loaded.
+	 *
+	 * @param image the image
+	 * @return the image
+	 */
+	public static Image keep(Image image)
+	{
+		recentImages.put(image.key, image);
+		synchronized (images)
+		{
+			ImageReference reference;
+			while ((reference = (ImageReference) collectedImages.poll()) != null)
+			{
+				if (images.get(reference.key) == reference)
+				{
+					images.remove(reference.key);
+				}
+			}
+			var existing = images.get(image.key);
+			if (existing == null || existing.get() == null)
+			{
+				images.put(image.key, new ImageReference(image, collectedImages));
+			}
+		}
+		return image;
+	}
+
+	/**
+	 * Opens the data of an image. The base64 is decoded while it's read.
+	 *
+	 * @param key the key of the image
+	 * @return the encoded image or null if it's not known anymore
+	 */
+	public static InputStream openStream(String key)
+	{
+		var image = find(key);
+		if (image == null)
+		{
+			return null;
+		}
+		return new Base64InputStream(new CharSequenceInputStream(image.source, image.start, image.end), Base64.DEFAULT);
+	}
+
+	private static Image find(String key)
+	{
+		var image = recentImages.get(key);
+		if (image != null)
+		{
+			return image;
+		}
+		synchronized (images)
+		{
+			var reference = images.get(key);
+			return reference != null ? reference.get() : null;
+		}
+	}
+
+	private static String digest(CharSequence source, int start, int end)
+	{
+		try
+		{
+			var digest = MessageDigest.getInstance("SHA-1");
+			var buffer = new byte[4096];
+			var length = 0;
+			for (var i = start; i < end; i++)
+			{
+				buffer[length++] = (byte) source.charAt(i); // Base64 is ASCII
+				if (length == buffer.length)
+				{
+					digest.update(buffer, 0, length);
+					length = 0;
+				}
+			}
+			digest.update(buffer, 0, length);
+			return Id.toString(digest.digest());
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -24,14 +24,33 @@ import com.google.gson.GsonBuilder;
 
 import java.time.Instant;
 
-import io.xeres.mobile.service.gson.ByteArrayDeserializer;
-import io.xeres.mobile.service.gson.InstantDeserializer;
+import io.xeres.mobile.service.gson.ByteArrayTypeAdapter;
+import io.xeres.mobile.service.gson.ChatBacklogTypeAdapter;
+import io.xeres.mobile.service.gson.ChatRoomBacklogTypeAdapter;
+import io.xeres.mobile.service.gson.ChatRoomMessageTypeAdapter;
+import io.xeres.mobile.service.gson.ContactTypeAdapter;
+import io.xeres.mobile.service.gson.InstantTypeAdapter;
+import io.xeres.mobile.service.gson.LocationTypeAdapter;
+import io.xeres.mobile.service.gson.ProfileTypeAdapter;
+import io.xeres.mobile.service.json.ChatBacklog;
+import io.xeres.mobile.service.json.ChatRoomBacklog;
+import io.xeres.mobile.service.json.ChatRoomMessage;
+import io.xeres.mobile.service.json.Contact;
+import io.xeres.mobile.service.json.Location;
+import io.xeres.mobile.service.json.Profile;
 
 public final class JsonUtils
 {
 	public static final Gson GSON = new GsonBuilder()
-			.registerTypeAdapter(Instant.class, new InstantDeserializer())
-			.registerTypeAdapter(byte[].class, new ByteArrayDeserializer())
+			.registerTypeAdapter(Instant.class, new InstantTypeAdapter())
+			.registerTypeAdapter(byte[].class, new ByteArrayTypeAdapter())
+			// Streaming adapters for the payloads that come in large numbers, so they skip reflection
+			.registerTypeAdapter(ChatBacklog.class, new ChatBacklogTypeAdapter())
+			.registerTypeAdapter(ChatRoomBacklog.class, new ChatRoomBacklogTypeAdapter())
+			.registerTypeAdapter(ChatRoomMessage.class, new ChatRoomMessageTypeAdapter())
+			.registerTypeAdapter(Contact.class, new ContactTypeAdapter())
+			.registerTypeAdapter(Location.class, new LocationTypeAdapter())
+			.registerTypeAdapter(Profile.class, new ProfileTypeAdapter())
 			.create();
 
 	private JsonUtils()
@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2025 by David Gerber - https://zapek.com
+ *
+ * This file is part of Xeres-Android.
+ *
+ * Xeres-Android is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Xeres-Android is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Xeres-Android.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.xeres.mobile.util;
+
+import android.util.Log;
+import android.view.Choreographer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Decodes incoming messages on a background thread and hands them to the main thread
+ * in batches, at most once per frame, so that a burst of messages only costs one
+ * layout. Messages keep their arrival order.
+ * Must be created on the main thread.
+ *
+ * @param <T> the type of the decoded messages
+ */
+public class LiveMessagePipeline<T>
+{
+	private static final String TAG = "LiveMessagePipeline";
+
+	private final ExecutorService decodeExecutor = Executors.newSingleThreadExecutor();
+	private final Choreographer choreographer = Choreographer.getInstance();
+	private final Choreographer.FrameCallback frameCallback = frameTimeNanos -> deliver();
+	private final Consumer<List<T>> batchConsumer;
+	private final Object lock = new Object();
+	private List<T> pending = new ArrayList<>();
+	private boolean frameScheduled;
+	private volatile boolean closed;
+
+	private int batchCount;
+	private int messageCount;
+
+	/**
+	 * Creates a pipeline.
+	 *
+	 * @param batchConsumer gets the decoded messages on the main thread
+	 */
+	public LiveMessagePipeline(Consumer<List<T>> batchConsumer)
+	{
+		this.batchConsumer = batchConsumer;
+	}
+
+	/**
+	 * Queues a message for decoding. Can be called from any thread.
+	 *
+	 * @param decoder decodes the message, returns null to drop it
+	 */
+	public void submit(Supplier<T> decoder)
+	{
+		try
+		{
+			decodeExecutor.execute(() -> decode(decoder));
+		}
+		catch (RejectedExecutionException e)
+		{
+			// Closed
+		}
+	}
+
+	public void close()
+	{
+		closed = true;
+		decodeExecutor.shutdownNow();
+		choreographer.removeFrameCallback(frameCallback);
+	}
+
+	private void decode(Supplier<T> decoder)
+	{
+		T item;
+		try
+		{
+			item = decoder.get();
+		}
+		catch (RuntimeException e)
+		{
+			Log.e(TAG, "Failed to decode message: ", e);
+			return;
+		}
+		if (item == null)
+		{
+			return;
+		}
+
+		synchronized (lock)
+		{
+			pending.add(item);
+			if (!frameScheduled)
+			{
+				frameScheduled = true;
+				choreographer.postFrameCallback(frameCallback);
+			}
+		}
+	}
+
+	private void deliver()
+	{
+		List<T> batch;
+		synchronized (lock)
+		{
+			batch = pending;
+			pending = new ArrayList<>();
+			frameScheduled = false;
+		}
+		if (!closed && !batch.isEmpty())
+		{
+			batchCount++;
+			messageCount += batch.size();
+			batchConsumer.accept(batch);
+		}
+	}
+
+	/**
+	 * Gets the number of batches delivered. Must be called from the main thread.
+	 */
+	public int getBatchCount()
+	{
+		return batchCount;
+	}
+
+	/**
+	 * Gets the number of messages delivered. Must be called from the main thread.
+	 */
+	public int getMessageCount()
+	{
+		return messageCount;
+	}
+}
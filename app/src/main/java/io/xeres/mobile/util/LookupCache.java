@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2025 by David Gerber - https://zapek.com
+ *
+ * This file is part of Xeres-Android.
+ *
+ * Xeres-Android is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Xeres-Android is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Xeres-Android.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.xeres.mobile.util;
+
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+/**
+ * Caches lookups by id for a limited time. Requests for an id that is already
+ * being fetched wait for that fetch instead of starting a new one.
+ * All methods must be called from the main thread.
+ *
+ * @param <V> the type of the looked up values
+ */
+public class LookupCache<V>
+{
+	public interface Loader<V>
+	{
+		/**
+		 * Fetches a value.
+		 *
+		 * @param id       the id
+		 * @param consumer gets the value or null if there was an error
+		 */
+		void load(long id, Consumer<V> consumer);
+	}
+
+	private static class Entry<V>
+	{
+		private final V value;
+		private final long expiration;
+
+		private Entry(V value, long expiration)
+		{
+			this.value = value;
+			this.expiration = expiration;
+		}
+	}
+
+	private final long timeToLive;
+	private final Loader<V> loader;
+	private final LongSupplier clock;
+	private final Map<Long, Entry<V>> entries = new HashMap<>();
+	private final Map<Long, List<Consumer<V>>> pending = new HashMap<>();
+	private int generation;
+
+	private int hits;
+	private int misses;
+
+	/**
+	 * Creates a cache.
+	 *
+	 * @param timeToLive how long a value is kept, in milliseconds
+	 * @param loader     fetches the missing values
+	 */
+	public LookupCache(long timeToLive, Loader<V> loader)
+	{
+		this(timeToLive, loader, SystemClock::elapsedRealtime);
+	}
+
+	LookupCache(long timeToLive, Loader<V> loader, LongSupplier clock)
+	{
+		this.timeToLive = timeToLive;
+		this.loader = loader;
+		this.clock = clock;
+	}
+
+	public void get(long id, Consumer<V> consumer)
+	{
+		var entry = entries.get(id);
+		if (entry != null)
+		{
+			if (entry.expiration > clock.getAsLong())
+			{
+				hits++;
+				consumer.accept(entry.value);
+				return;
+			}
+			entries.remove(id);
+		}
+		misses++;
+
+		var waiting = pending.get(id);
+		if (waiting != null)
+		{
+			waiting.add(consumer);
+			return;
+		}
+		waiting = new ArrayList<>();
+		waiting.add(consumer);
+		pending.put(id, waiting);
+
+		var loadGeneration = generation;
+		loader.load(id, value -> {
+			// An invalidation during the fetch means the value might already be stale
+			if (value != null && loadGeneration == generation)
+			{
+				put(id, value);
+			}
+			var consumers = pending.remove(id);
+			if (value != null && consumers != null)
+			{
+				consumers.forEach(waitingConsumer -> waitingConsumer.accept(value));
+			}
+		});
+	}
+
+	/**
+	 * Adds a value that was obtained some other way, for example embedded in another lookup.
+	 */
+	public void put(long id, V value)
+	{
+		entries.put(id, new Entry<>(value, clock.getAsLong() + timeToLive));
+	}
+
+	public void invalidate(long id)
+	{
+		entries.remove(id);
+		generation++;
+	}
+
+	public void invalidateAll()
+	{
+		entries.clear();
+		generation++;
+	}
+
+	public int getHits()
+	{
+		return hits;
+	}
+
+	public int getMisses()
+	{
+		return misses;
+	}
+}
@@ -0,0 +1,297 @@
+/*
+ * Copyright (c) 2025 by David Gerber - https://zapek.com
+ *
+ * This file is part of Xeres-Android.
+ *
+ * Xeres-Android is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Xeres-Android is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Xeres-Android.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.xeres.mobile.util;
+
+/**
+ * Finds out what a chat message contains in a single pass, so that plain text doesn't have to go
+ * through the markdown parser and inline images can be found without building a DOM.
+ */
+public final class MessageSniffer
+{
+	private MessageSniffer()
+	{
+		throw new UnsupportedOperationException("Utility class");
+	}
+
+	public enum Kind
+	{
+		/**
+		 * Text that renders as is.
+		 */
+		PLAIN,
+		/**
+		 * Text that might have markdown or something to linkify.
+		 */
+		MARKDOWN,
+		/**
+		 * Text with HTML tags or entities.
+		 */
+		HTML,
+		/**
+		 * An image embedded as a data: URL, see {@link Result#getImageStart()} and {@link Result#getImageEnd()}.
+		 * The text around it is in {@link Result#getElementStart()} and {@link Result#getElementEnd()}.
+		 */
+		INLINE_IMAGE
+	}
+
+	public static class Result
+	{
+		private final Kind kind;
+		private final int imageStart;
+		private final int imageEnd;
+		private final int elementStart;
+		private final int elementEnd;
+
+		private Result(Kind kind, int imageStart, int imageEnd, int elementStart, int elementEnd)
+		{
+			this.kind = kind;
+			this.imageStart = imageStart;
+			this.imageEnd = imageEnd;
+			this.elementStart = elementStart;
+			this.elementEnd = elementEnd;
+		}
+
+		public Kind getKind()
+		{
+			return kind;
+		}
+
+		/**
+		 * Gets where the data: URL of the image starts in the message.
+		 */
+		public int getImageStart()
+		{
+			return imageStart;
+		}
+
+		/**
+		 * Gets where the data: URL of the image ends in the message.
+		 */
+		public int getImageEnd()
+		{
+			return imageEnd;
+		}
+
+		/**
+		 * Gets where the img tag or the markdown image starts in the message.
+		 */
+		public int getElementStart()
+		{
+			return elementStart;
+		}
+
+		/**
+		 * Gets where the img tag or the markdown image ends in the message.
+		 */
+		public int getElementEnd()
+		{
+			return elementEnd;
+		}
+	}
+
+	private static final Result PLAIN = new Result(Kind.PLAIN, -1, -1, -1, -1);
+	private static final Result MARKDOWN = new Result(Kind.MARKDOWN, -1, -1, -1, -1);
+	private static final Result HTML = new Result(Kind.HTML, -1, -1, -1, -1);
+
+	public static Result sniff(String message)
+	{
+		var length = message.length();
+		if (length == 0)
+		{
+			return PLAIN;
+		}
+		// Markdown trims paragraphs and turns indented lines into code
+		var kind = Character.isWhitespace(message.charAt(0)) || Character.isWhitespace(message.charAt(length - 1)) ? Kind.MARKDOWN : Kind.PLAIN;
+		for (var i = 0; i < length; i++)
+		{
+			var c = message.charAt(i);
+			switch (c)
+			{
+				case '<':
+					if (regionMatchesIgnoreCase(message, i + 1, "img"))
+					{
+						var image = findImgDataSource(message, i, i + 4);
+						if (image != null)
+						{
+							return image;
+						}
+					}
+					kind = Kind.HTML;
+					break;
+
+				case '&':
+					kind = Kind.HTML;
+					break;
+
+				case '!':
+					if (message.startsWith("[](data:", i + 1))
+					{
+						var imageEnd = findMarkdownUrlEnd(message, i + 4);
+						return new Result(Kind.INLINE_IMAGE, i + 4, imageEnd, i, imageEnd < length && message.charAt(imageEnd) == ')' ? imageEnd + 1 : imageEnd);
+					}
+					if (kind == Kind.PLAIN)
+					{
+						kind = Kind.MARKDOWN;
+					}
+					break;
+
+				default:
+					if (kind == Kind.PLAIN && isMarkdownCandidate(message, i, c))
+					{
+						kind = Kind.MARKDOWN;
+					}
+					break;
+			}
+		}
+		return kind == Kind.PLAIN ? PLAIN : kind == Kind.MARKDOWN ? MARKDOWN : HTML;
+	}
+
+	/**
+	 * Tells if a character could make markdown or linkify change the text. This errs on the
+	 * side of caution: a false positive only costs a parse.
+	 */
+	private static boolean isMarkdownCandidate(String message, int index, char c)
+	{
+		switch (c)
+		{
+			case '*':
+			case '_':
+			case '~':
+			case '`':
+			case '#':
+			case '>':
+			case '[':
+			case ']':
+			case '\\':
+			case '|':
+			case '\n':
+			case '\r':
+			case '@': // Emails
+			case ':': // URLs
+				return true;
+
+			case '-':
+			case '+':
+			case '=':
+				return index == 0 || message.charAt(index - 1) == '\n';
+
+			case '.':
+				// Domain names
+				return index + 1 < message.length() && Character.isLetterOrDigit(message.charAt(index + 1));
+
+			default:
+				return Character.isDigit(c); // Ordered lists and phone numbers
+		}
+	}
+
+	/**
+	 * Finds the src attribute of an img tag if it's a data: URL.
+	 *
+	 * @param message  the message
+	 * @param tagStart where the tag starts
+	 * @param index    where the attributes start
+	 * @return the result or null if it's not an inline image
+	 */
+	private static Result findImgDataSource(String message, int tagStart, int index)
+	{
+		var length = message.length();
+		if (index >= length || !(Character.isWhitespace(message.charAt(index)) || message.charAt(index) == '/'))
+		{
+			return null; // Another tag, like <image>
+		}
+		var end = message.indexOf('>', index);
+		var tagEnd = end + 1;
+		if (end == -1)
+		{
+			end = length;
+			tagEnd = length;
+		}
+		var i = index;
+		while (i < end)
+		{
+			var c = message.charAt(i);
+			if (regionMatchesIgnoreCase(message, i, "src") && (i == 0 || Character.isWhitespace(message.charAt(i - 1))))
+			{
+				var j = i + 3;
+				while (j < end && Character.isWhitespace(message.charAt(j)))
+				{
+					j++;
+				}
+				if (j < end && message.charAt(j) == '=')
+				{
+					j++;
+					while (j < end && Character.isWhitespace(message.charAt(j)))
+					{
+						j++;
+					}
+					var quote = j < end ? message.charAt(j) : 0;
+					int start;
+					int valueEnd;
+					if (quote == '"' || quote == '\'')
+					{
+						start = j + 1;
+						valueEnd = message.indexOf(quote, start);
+						if (valueEnd == -1)
+						{
+							return null;
+						}
+					}
+					else
+					{
+						start = j;
+						valueEnd = start;
+						while (valueEnd < end && !Character.isWhitespace(message.charAt(valueEnd)))
+						{
+							valueEnd++;
+						}
+					}
+					return message.startsWith("data:", start) ? new Result(Kind.INLINE_IMAGE, start, valueEnd, tagStart, tagEnd) : null;
+				}
+			}
+			else if (c == '"' || c == '\'')
+			{
+				// Skip the values of the other attributes
+				var closing = message.indexOf(c, i + 1);
+				if (closing == -1)
+				{
+					return null;
+				}
+				i = closing;
+			}
+			i++;
+		}
+		return null;
+	}
+
+	private static int findMarkdownUrlEnd(String message, int index)
+	{
+		var end = index;
+		while (end < message.length() && message.charAt(end) != ')' && !Character.isWhitespace(message.charAt(end)))
+		{
+			end++;
+		}
+		return end;
+	}
+
+	private static boolean regionMatchesIgnoreCase(String message, int index, String what)
+	{
+		return message.regionMatches(true, index, what, 0, what.length());
+	}
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2025 by David Gerber - https://zapek.com
+ *
+ * This file is part of Xeres-Android.
+ *
+ * Xeres-Android is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Xeres-Android is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Xeres-Android.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.xeres.mobile.util;
+
+import android.util.LruCache;
+
+/**
+ * Cache of rendered chat lines, so that binding a line that was already displayed
+ * doesn't parse its HTML and markdown again. The size is counted in characters.
+ * It can be used from any thread.
+ */
+public class RenderCache extends LruCache<String, RenderCache.Entry>
+{
+	public static final int DEFAULT_SIZE = 512 * 1024;
+
+	static class Entry
+	{
+		private final String message;
+		private final ChatProcessor.RenderedLine renderedLine;
+
+		Entry(String message, ChatProcessor.RenderedLine renderedLine)
+		{
+			this.message = message;
+			this.renderedLine = renderedLine;
+		}
+	}
+
+	public RenderCache(int maxSize)
+	{
+		super(maxSize);
+	}
+
+	/**
+	 * Gets a rendered line.
+	 *
+	 * @param key     the key, made of what identifies the line and the hash of the message
+	 * @param message the message, to make sure a hash collision doesn't return another one
+	 * @return the rendered line or null
+	 */
+	ChatProcessor.RenderedLine getLine(String key, String message)
+	{
+		var entry = get(key);
+		if (entry == null || !entry.message.equals(message))
+		{
+			return null;
+		}
+		return entry.renderedLine;
+	}
+
+	void addLine(String key, String message, ChatProcessor.RenderedLine renderedLine)
+	{
+		put(key, new Entry(message, renderedLine));
+	}
+
+	public void evictPartial()
+	{
+		trimToSize(maxSize() / 2);
+	}
+
+	@Override
+	protected int sizeOf(String key, Entry entry)
+	{
+		var imageUrl = entry.renderedLine.getImageUrl();
+		return key.length() + entry.renderedLine.getText().length() + (imageUrl != null ? imageUrl.length() : 0);
+	}
+}
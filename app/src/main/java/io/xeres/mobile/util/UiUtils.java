@@ -30,7 +30,24 @@ public final class UiUtils
 
 	public static void scrollToBottomIfPossible(RecyclerView recyclerView, RecyclerView.Adapter<?> adapter)
 	{
-		if (!recyclerView.canScrollVertically(1))
+		if (isAtBottom(recyclerView))
+		{
+			scrollToBottom(recyclerView, adapter);
+		}
+	}
+
+	/**
+	 * Tells if the user is looking at the end of the list. Call it before adding items
+	 * so that the decision is made on what's displayed.
+	 */
+	public static boolean isAtBottom(RecyclerView recyclerView)
+	{
+		return !recyclerView.canScrollVertically(1);
+	}
+
+	public static void scrollToBottom(RecyclerView recyclerView, RecyclerView.Adapter<?> adapter)
+	{
+		if (adapter.getItemCount() > 0)
 		{
 			recyclerView.scrollToPosition(adapter.getItemCount() - 1);
 		}
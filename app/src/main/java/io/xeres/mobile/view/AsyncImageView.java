@@ -27,18 +27,11 @@ import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.ColorDrawable;
 import android.graphics.drawable.Drawable;
 import android.graphics.drawable.TransitionDrawable;
-import android.os.AsyncTask;
 import android.util.AttributeSet;
-import android.util.Log;
 import android.view.Gravity;
-import android.widget.ImageView;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.lang.ref.WeakReference;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.util.concurrent.ExecutorService;
 
 import io.xeres.mobile.R;
 
@@ -96,6 +89,30 @@ public class AsyncImageView extends androidx.appcompat.widget.AppCompatImageView
 		 */
 		Bitmap getBitmap(String url);
 
+		/**
+		 * Gets a cache bitmap for a given URL and marks it as displayed, like
+		 * {@link #acquireBitmap(Bitmap)} does.
+		 *
+		 * @param url where the image is
+		 * @return a bitmap if it's in the cache, null otherwise
+		 */
+		Bitmap acquireBitmap(String url);
+
+		/**
+		 * Marks a bitmap as displayed. It won't be reused to decode other images
+		 * until it's released as many times as it was acquired.
+		 *
+		 * @param bitmap the bitmap
+		 */
+		void acquireBitmap(Bitmap bitmap);
+
+		/**
+		 * Tells that a bitmap acquired before isn't displayed anymore.
+		 *
+		 * @param bitmap the bitmap
+		 */
+		void releaseBitmap(Bitmap bitmap);
+
 		/**
 		 * Puts a bitmap in the cache
 		 *
@@ -120,18 +137,42 @@ public class AsyncImageView extends androidx.appcompat.widget.AppCompatImageView
 	}
 
 	/**
-	 * Optional interface to allow to use a different executor than the default one. For example
-	 * you can do Executors.newFixedThreadPool(4); to have a 4 fixed threads useful for decoding
-	 * in a listview. Implement it in your Application object.
+	 * Optional interface to keep the encoded images on disk, behind the memory cache.
+	 * Implement it in your Application object.
 	 */
-	public interface ImageExecutor
+	public interface DiskCache
 	{
 		/**
-		 * Gets the image executor.
+		 * Gets the encoded image for a given URL
+		 *
+		 * @param url where the image is
+		 * @return the image data if it's in the cache, null otherwise
+		 */
+		byte[] getImageData(String url);
+
+		/**
+		 * Tells if a cached image should be fetched again. It's still used while it's fetched in the background.
 		 *
-		 * @return an ExecutorService
+		 * @param url where the image is
+		 * @return true if it should be fetched again
 		 */
-		ExecutorService getImageExecutor();
+		boolean isImageDataStale(String url);
+
+		/**
+		 * Puts the encoded image in the cache
+		 *
+		 * @param url  where the image was fetched from
+		 * @param data the image data
+		 */
+		void addImageData(String url, byte[] data);
+
+		/**
+		 * Puts the encoded image in the cache while it's being read
+		 *
+		 * @param url where the image was fetched from
+		 * @param in  the image data, closed when done
+		 */
+		void addImageData(String url, InputStream in);
 	}
 
 	/**
@@ -166,8 +207,11 @@ public class AsyncImageView extends androidx.appcompat.widget.AppCompatImageView
 	private final Drawable errorDrawable;
 	private final Drawable defaultDrawable; /* used as a placeholder */
 	private ImageCache imageCache;
-	private ExecutorService executor;
+	private ImageCache bitmapReferences;
+	private Bitmap displayedBitmap;
 	private ImageInput imageInput;
+	private final ImageEngine imageEngine;
+	private ImageEngine.Request request;
 
 	public AsyncImageView(Context context)
 	{
@@ -200,18 +244,17 @@ public class AsyncImageView extends androidx.appcompat.widget.AppCompatImageView
 
 		Context applicationContext = context.getApplicationContext();
 
-		if (useMemoryCache)
+		if (applicationContext instanceof ImageCache)
 		{
-			if (applicationContext instanceof ImageCache)
+			/* the engine decodes into that cache's bitmaps even if we don't look it up */
+			bitmapReferences = (ImageCache) applicationContext;
+			if (useMemoryCache)
 			{
-				imageCache = (ImageCache) applicationContext;
+				imageCache = bitmapReferences;
 			}
 		}
 
-		if (applicationContext instanceof ImageExecutor)
-		{
-			executor = ((ImageExecutor) applicationContext).getImageExecutor();
-		}
+		imageEngine = ImageEngine.getInstance(context);
 
 		if (applicationContext instanceof ImageInput)
 		{
@@ -286,12 +329,14 @@ public class AsyncImageView extends androidx.appcompat.widget.AppCompatImageView
 				}
 			}
 			transitionDrawable.resetTransition();
+			releaseBitmap();
 			this.imageUrl = imageUrl;
 			loaded = false;
 			loadImage();
 		}
 		else
 		{
+			cancelRequest();
 			setDrawable(null, true);
 			this.imageUrl = null;
 		}
@@ -318,12 +363,74 @@ public class AsyncImageView extends androidx.appcompat.widget.AppCompatImageView
 			if (imageUrl != null)
 			{
 				loaded = true;
-				LoaderTask.loadImage(this, imageUrl, imageInput, imageCache, executor);
+				startRequest(imageUrl);
 			}
 			/* XXX: show an error? or default? */
 		}
 	}
 
+	private void startRequest(String url)
+	{
+		if (imageCache != null)
+		{
+			/* acquired right away so that it can't be reused before we display it */
+			Bitmap bitmap = imageCache.acquireBitmap(url);
+			if (bitmap != null)
+			{
+				ImageMetrics.memoryHits.incrementAndGet();
+				cancelRequest();
+				setBitmap(bitmap, true);
+				imageCache.releaseBitmap(bitmap);
+				setOnImageLoaded(true);
+				return;
+			}
+			ImageMetrics.memoryMisses.incrementAndGet();
+		}
+
+		if (request != null)
+		{
+			if (request.getUrl().equals(url))
+			{
+				/* same work already in progress */
+				return;
+			}
+			cancelRequest();
+		}
+
+		int width = getMeasuredWidth();
+		int height = getMeasuredHeight();
+		if (width == 0 || height == 0)
+		{
+			throw new IllegalArgumentException("width: " + width + ", height: " + height);
+		}
+
+		request = imageEngine.load(url, width, height, ImageEngine.PRIORITY_VISIBLE, imageInput, bitmap -> {
+			request = null;
+			if (bitmap != null)
+			{
+				setBitmap(bitmap, false);
+				setOnImageLoaded(true);
+			}
+			else
+			{
+				setOnImageLoaded(false);
+			}
+		});
+	}
+
+	/**
+	 * Cancels the image being loaded, if any. Its fetch and decode keep going if other views want the same image.
+	 */
+	private void cancelRequest()
+	{
+		if (request != null)
+		{
+			request.cancel();
+			request = null;
+			loaded = false;
+		}
+	}
+
 	@Override
 	protected void onAttachedToWindow()
 	{
@@ -357,12 +464,12 @@ public class AsyncImageView extends androidx.appcompat.widget.AppCompatImageView
 	{
 		super.onDetachedFromWindow();
 		canLoad = false;
+		cancelRequest(); /* the image will be requested again if the view is attached again */
 	}
 
 	private void setDrawable(Drawable drawable, boolean immediate)
 	{
-		transitionDrawable.setLoaderTask(null);
-
+		releaseBitmap();
 		if (drawable != null)
 		{
 			transitionDrawable.setDrawableByLayerId(DRAWABLE_BITMAP, drawable);
@@ -393,7 +500,27 @@ public class AsyncImageView extends androidx.appcompat.widget.AppCompatImageView
 		{
 			bitmapDrawable.setGravity(Gravity.DISPLAY_CLIP_HORIZONTAL | Gravity.DISPLAY_CLIP_VERTICAL | Gravity.CENTER);
 		}
+		if (bitmapReferences != null)
+		{
+			bitmapReferences.acquireBitmap(bitmap);
+		}
 		setDrawable(bitmapDrawable, immediate);
+		displayedBitmap = bitmap;
+	}
+
+	/**
+	 * Releases the bitmap we were showing so that it can be reused once it's evicted.
+	 */
+	private void releaseBitmap()
+	{
+		if (displayedBitmap != null)
+		{
+			if (bitmapReferences != null)
+			{
+				bitmapReferences.releaseBitmap(displayedBitmap);
+			}
+			displayedBitmap = null;
+		}
 	}
 
 	private void setOnImageLoaded(boolean result)
@@ -417,309 +544,13 @@ public class AsyncImageView extends androidx.appcompat.widget.AppCompatImageView
 		}
 	}
 
-	private static class LoaderTask extends AsyncTask<String, Void, Bitmap>
-	{
-		private final Context context;
-		private final ImageInput input;
-		private final ImageCache cache;
-		private final WeakReference<AsyncImageView> imageViewReference;
-		private String imageUrl;
-		private final int imageWidth;
-		private final int imageHeight;
-
-		static public boolean loadImage(AsyncImageView imageView, String imageUrl, ImageInput input, ImageCache cache, ExecutorService executor)
-		{
-			if (cache != null)
-			{
-				Bitmap bitmap = cache.getBitmap(imageUrl);
-				if (bitmap != null)
-				{
-					Log.d(TAG, "Got image from cache!");
-					imageView.setBitmap(bitmap, true);
-					imageView.setOnImageLoaded(true);
-					return true;
-				}
-			}
-			if (canDoWork(imageUrl, imageView))
-			{
-				final LoaderTask task = new LoaderTask(imageView, input, cache);
-				final AsyncTransitionDrawable asyncDrawable = (AsyncTransitionDrawable) imageView.getDrawable();
-				asyncDrawable.setLoaderTask(task);
-
-				if (executor != null)
-				{
-					task.executeOnExecutor(executor, imageUrl);
-				}
-				else
-				{
-					task.execute(imageUrl);
-				}
-				return true;
-			}
-			return false;
-		}
-
-		static private boolean canDoWork(String imageUrl, AsyncImageView imageView)
-		{
-			final LoaderTask task = getLoaderTask(imageView);
-
-			if (task != null)
-			{
-				final String taskImageUrl = task.imageUrl;
-				if (imageUrl.equals(taskImageUrl))
-				{
-					/* same work already in progress */
-					return false;
-				}
-				else
-				{
-					/*
-					 * Cancel previous task
-					 * Note: since Android 5.0, it
-					 * seems cancelling an active thread makes
-					 * OkHttp (used internally) abort read() without
-					 * returning an error so skia tries to decode
-					 * broken data and one gets incomplete images.
-					 * Not cancelling the thread is ok too.
-					 */
-					task.cancel(false);
-				}
-			}
-			/*
-			 * No task associated with the ImageView, or an existing task was
-			 * cancelled
-			 */
-			return true;
-		}
-
-		static private LoaderTask getLoaderTask(AsyncImageView imageView)
-		{
-			if (imageView != null)
-			{
-				final AsyncTransitionDrawable asyncDrawable = (AsyncTransitionDrawable) imageView.getDrawable();
-
-				return (LoaderTask) (asyncDrawable.getLoaderTask());
-			}
-			return null;
-		}
-
-		private LoaderTask(AsyncImageView imageView, ImageInput input, ImageCache cache)
-		{
-			/*
-			 * We need a long living context so that other resources can be
-			 * garbage collected if they're closed and we didn't finish yet.
-			 */
-			context = imageView.getContext().getApplicationContext();
-			this.input = input;
-			this.cache = cache;
-			imageViewReference = new WeakReference<>(imageView);
-			imageWidth = imageView.getMeasuredWidth();
-			imageHeight = imageView.getMeasuredHeight();
-			if (imageWidth == 0 || imageHeight == 0)
-			{
-				throw new IllegalArgumentException("width: " + imageWidth + ", height: " + imageHeight);
-			}
-		}
-
-		@Override
-		protected Bitmap doInBackground(String... params)
-		{
-			imageUrl = params[0];
-			Bitmap bitmap = null;
-
-			if (!isCancelled())
-			{
-				try
-				{
-					ImageConnection connection = null;
-					InputStream in = null;
-					HttpURLConnection urlConnection = null;
-
-					if (input != null)
-					{
-						connection = input.getImageConnection();
-						connection.connect(imageUrl);
-						in = connection.getInputStream();
-					}
-					else
-					{
-						urlConnection = (HttpURLConnection) new URL(imageUrl).openConnection();
-						if (urlConnection.getResponseCode() == HttpURLConnection.HTTP_OK)
-						{
-							in = urlConnection.getInputStream();
-						}
-					}
-
-					if (in != null)
-					{
-						ImageView imageView = imageViewReference.get();
-						int retry = 2;
-
-						while (!isCancelled() && retry > 0)
-						{
-							try
-							{
-								if (imageView != null)
-								{
-									BitmapFactory.Options options = new BitmapFactory.Options();
-
-									if (cache != null)
-									{
-										options.inMutable = true;
-										options.inSampleSize = 1;
-										options.outWidth = imageWidth;
-										options.outHeight = imageHeight;
-
-										Bitmap inBitmap = cache.getReusableBitmap(options);
-										if (inBitmap != null)
-										{
-											options.inBitmap = inBitmap;
-										}
-									}
-									try
-									{
-										bitmap = BitmapFactory.decodeStream(in, null, options);
-									}
-									catch (IllegalArgumentException e)
-									{
-										/* this happens when the input is wrong and we use an inBitmap */
-									}
-								}
-
-								if (bitmap != null)
-								{
-									/*
-									 * Scale the bitmap up or down so it fits
-									 * in the view with the proper aspect
-									 * ratio.
-									 */
-									int targetWidth = imageWidth;
-									int targetHeight = imageHeight;
-									int srcWidth = bitmap.getWidth();
-									int srcHeight = bitmap.getHeight();
-
-									float aspectRatio = (float) srcWidth / srcHeight;
-
-									int width = srcWidth;
-									int height = srcHeight;
-
-									/*
-									 * Get the biggest corner.
-									 */
-									if (width > height)
-									{
-										width = targetWidth;
-										height = (int) ((float) targetWidth / aspectRatio);
-
-										if (height > targetHeight)
-										{
-											height = targetHeight;
-											width = (int) ((float) height * aspectRatio);
-										}
-									}
-									else
-									{
-										height = targetHeight;
-										width = (int) ((float) targetHeight * aspectRatio);
-
-										if (width > targetWidth)
-										{
-											width = targetWidth;
-											height = (int) ((float) width / aspectRatio);
-										}
-									}
-									bitmap = Bitmap.createScaledBitmap(bitmap, width, height, true);
-
-									if (cache != null)
-									{
-										cache.addBitmap(imageUrl, bitmap);
-									}
-								}
-								else
-								{
-									Log.d(TAG, "error decoding bitmap");
-								}
-								retry = 0;
-							}
-							catch (OutOfMemoryError e)
-							{
-								Log.d(TAG, "out of memory, trying to evict cache");
-								if (cache != null)
-								{
-									cache.evictAll();
-									retry--;
-								}
-								else
-								{
-									retry = 0;
-								}
-							}
-						}
-					}
-					if (input != null)
-					{
-						connection.disconnect();
-					}
-					else
-					{
-						urlConnection.disconnect();
-					}
-				}
-				catch (IOException e)
-				{
-					Log.d(TAG, imageUrl + " IOException: " + e);
-				}
-			}
-			return bitmap;
-		}
-
-		@Override
-		protected void onPostExecute(Bitmap bitmap)
-		{
-			if (!isCancelled())
-			{
-				final AsyncImageView imageView = imageViewReference.get();
-				final LoaderTask task = getLoaderTask(imageView);
-				if (this == task)
-				{
-					if (bitmap != null)
-					{
-						imageView.setBitmap(bitmap, false);
-						imageView.setOnImageLoaded(true);
-					}
-					else
-					{
-						imageView.setOnImageLoaded(false);
-					}
-				}
-			}
-		}
-	}
-
 	static class AsyncTransitionDrawable extends TransitionDrawable
 	{
-
-		private WeakReference<AsyncTask> taskReference;
-
 		public AsyncTransitionDrawable(Drawable[] layers)
 		{
 			super(layers);
 		}
 
-		public void setLoaderTask(AsyncTask task)
-		{
-			taskReference = new WeakReference<>(task);
-		}
-
-		public AsyncTask getLoaderTask()
-		{
-			if (taskReference != null)
-			{
-				return taskReference.get();
-			}
-			return null;
-		}
-
 		/*
 		 * That way we make sure no drawable will set a constraint.
 		 * ie. placeholder setting the size before the final image
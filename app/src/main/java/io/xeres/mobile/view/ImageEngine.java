@@ -0,0 +1,769 @@
+/*
+ * Copyright (c) 2025 by David Gerber - https://zapek.com
+ *
+ * This file is part of Xeres-Android.
+ *
+ * Xeres-Android is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Xeres-Android is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Xeres-Android.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.xeres.mobile.view;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.xeres.mobile.util.InlineImages;
+
+/**
+ * Loads images for AsyncImageView. Requests for the same URL share one fetch and requests
+ * for the same URL and size share one decode. Fetching and decoding run on separate thread
+ * pools, visible images first and the most recent requests first.
+ * All methods must be called from the main thread.
+ */
+public class ImageEngine
+{
+	private static final String TAG = "ImageEngine";
+
+	public static final int PRIORITY_PREFETCH = 0;
+	public static final int PRIORITY_VISIBLE = 1;
+	private static final int PRIORITY_REVALIDATION = -1;
+
+	private static final int IO_THREADS = 4;
+	private static final int DECODE_THREADS = 2;
+
+	public interface Callback
+	{
+		/**
+		 * Called from the main thread when the image is loaded.
+		 *
+		 * @param bitmap the bitmap or null if it couldn't be loaded
+		 */
+		void onImageLoaded(Bitmap bitmap);
+	}
+
+	/**
+	 * A pending request. Cancel it when the image isn't needed anymore.
+	 */
+	public final class Request
+	{
+		private final DecodeJob decodeJob;
+		private final Callback callback;
+		private boolean cancelled;
+
+		private Request(DecodeJob decodeJob, Callback callback)
+		{
+			this.decodeJob = decodeJob;
+			this.callback = callback;
+		}
+
+		public String getUrl()
+		{
+			return decodeJob.url;
+		}
+
+		public void cancel()
+		{
+			if (cancelled)
+			{
+				return;
+			}
+			cancelled = true;
+			cancelRequest(this);
+		}
+	}
+
+	/**
+	 * Where the encoded image can be read from. It can be opened several times.
+	 */
+	private interface Source
+	{
+		InputStream open() throws IOException;
+	}
+
+	private static class FetchJob
+	{
+		private final String url;
+		private final AsyncImageView.ImageInput input;
+		private final List<DecodeJob> decodeJobs = new ArrayList<>();
+		private PrioritizedTask task;
+		private byte[] staleData;
+
+		private FetchJob(String url, AsyncImageView.ImageInput input)
+		{
+			this.url = url;
+			this.input = input;
+		}
+	}
+
+	private static class DecodeJob
+	{
+		private final String key;
+		private final String url;
+		private final int width;
+		private final int height;
+		private final List<Request> requests = new ArrayList<>();
+		private FetchJob fetchJob;
+		private PrioritizedTask task;
+		private int priority;
+
+		private DecodeJob(String key, String url, int width, int height, int priority)
+		{
+			this.key = key;
+			this.url = url;
+			this.width = width;
+			this.height = height;
+			this.priority = priority;
+		}
+	}
+
+	/**
+	 * Runs the highest priority first, then the most recent one, because when scrolling
+	 * those are the ones that are on screen.
+	 */
+	private static class PrioritizedTask implements Runnable, Comparable<PrioritizedTask>
+	{
+		private final Runnable runnable;
+		private final long sequence;
+		private int priority;
+
+		private PrioritizedTask(Runnable runnable, int priority, long sequence)
+		{
+			this.runnable = runnable;
+			this.priority = priority;
+			this.sequence = sequence;
+		}
+
+		@Override
+		public void run()
+		{
+			runnable.run();
+		}
+
+		@Override
+		public int compareTo(PrioritizedTask other)
+		{
+			if (priority != other.priority)
+			{
+				return Integer.compare(other.priority, priority);
+			}
+			return Long.compare(other.sequence, sequence);
+		}
+	}
+
+	private static ImageEngine instance;
+
+	private final Handler handler = new Handler(Looper.getMainLooper());
+	private final ThreadPoolExecutor ioExecutor = createExecutor(IO_THREADS, "ImageIO");
+	private final ThreadPoolExecutor decodeExecutor = createExecutor(DECODE_THREADS, "ImageDecode");
+	private final AsyncImageView.ImageCache cache;
+	private final AsyncImageView.DiskCache diskCache;
+	private final Map<String, FetchJob> fetchJobs = new HashMap<>();
+	private final Map<String, DecodeJob> decodeJobs = new HashMap<>();
+	private final Set<String> revalidations = new HashSet<>();
+	private long sequence;
+
+	/**
+	 * Gets the engine. The caches are taken from the Application object if it implements them.
+	 */
+	public static ImageEngine getInstance(Context context)
+	{
+		if (instance == null)
+		{
+			var applicationContext = context.getApplicationContext();
+			instance = new ImageEngine(applicationContext instanceof AsyncImageView.ImageCache ? (AsyncImageView.ImageCache) applicationContext : null,
+					applicationContext instanceof AsyncImageView.DiskCache ? (AsyncImageView.DiskCache) applicationContext : null);
+		}
+		return instance;
+	}
+
+	private ImageEngine(AsyncImageView.ImageCache cache, AsyncImageView.DiskCache diskCache)
+	{
+		this.cache = cache;
+		this.diskCache = diskCache;
+	}
+
+	private static ThreadPoolExecutor createExecutor(int threads, String name)
+	{
+		var count = new AtomicInteger();
+		return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<>(), runnable -> new Thread(() -> {
+			Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+			runnable.run();
+		}, name + "-" + count.incrementAndGet()));
+	}
+
+	/**
+	 * Loads an image, scaled to fit in the given size.
+	 *
+	 * @param url      the URL of the image
+	 * @param width    the width to fit in
+	 * @param height   the height to fit in
+	 * @param priority {@link #PRIORITY_VISIBLE} or {@link #PRIORITY_PREFETCH}
+	 * @param input    where to fetch the image from, null to use HttpURLConnection
+	 * @param callback gets the result, unless the request is cancelled
+	 * @return the request
+	 */
+	public Request load(String url, int width, int height, int priority, AsyncImageView.ImageInput input, Callback callback)
+	{
+		var key = url + "@" + width + "x" + height;
+		var decodeJob = decodeJobs.get(key);
+		if (decodeJob == null)
+		{
+			decodeJob = new DecodeJob(key, url, width, height, priority);
+			decodeJobs.put(key, decodeJob);
+
+			var fetchJob = fetchJobs.get(url);
+			if (fetchJob == null)
+			{
+				var newFetchJob = new FetchJob(url, input);
+				newFetchJob.task = new PrioritizedTask(() -> runFetch(newFetchJob), priority, sequence++);
+				fetchJobs.put(url, newFetchJob);
+				ioExecutor.execute(newFetchJob.task);
+				fetchJob = newFetchJob;
+			}
+			else
+			{
+				ImageMetrics.coalescedRequests.incrementAndGet();
+			}
+			fetchJob.decodeJobs.add(decodeJob);
+			decodeJob.fetchJob = fetchJob;
+		}
+		else
+		{
+			ImageMetrics.coalescedRequests.incrementAndGet();
+		}
+		var request = new Request(decodeJob, callback);
+		decodeJob.requests.add(request);
+		raisePriority(decodeJob, priority);
+		return request;
+	}
+
+	private void raisePriority(DecodeJob decodeJob, int priority)
+	{
+		if (priority <= decodeJob.priority)
+		{
+			return;
+		}
+		decodeJob.priority = priority;
+		if (decodeJob.task != null)
+		{
+			reprioritize(decodeExecutor, decodeJob.task, priority);
+		}
+		else if (decodeJob.fetchJob != null)
+		{
+			reprioritize(ioExecutor, decodeJob.fetchJob.task, priority);
+		}
+	}
+
+	private static void reprioritize(ThreadPoolExecutor executor, PrioritizedTask task, int priority)
+	{
+		// The queue has to be given the task again to sort it, if it's still waiting
+		if (task.priority < priority && executor.remove(task))
+		{
+			task.priority = priority;
+			executor.execute(task);
+		}
+	}
+
+	private void cancelRequest(Request request)
+	{
+		var decodeJob = request.decodeJob;
+		decodeJob.requests.remove(request);
+		ImageMetrics.cancellations.incrementAndGet();
+		if (!decodeJob.requests.isEmpty())
+		{
+			return;
+		}
+
+		if (decodeJob.task != null)
+		{
+			// If it's already running, it stays there so that new requests can use its result
+			if (decodeExecutor.remove(decodeJob.task))
+			{
+				decodeJobs.remove(decodeJob.key);
+			}
+			return;
+		}
+
+		var fetchJob = decodeJob.fetchJob;
+		decodeJobs.remove(decodeJob.key);
+		fetchJob.decodeJobs.remove(decodeJob);
+		if (fetchJob.decodeJobs.isEmpty() && ioExecutor.remove(fetchJob.task))
+		{
+			fetchJobs.remove(fetchJob.url);
+		}
+	}
+
+	private void runFetch(FetchJob fetchJob)
+	{
+		Source source = null;
+		try
+		{
+			source = getImageSource(fetchJob);
+		}
+		catch (RuntimeException e)
+		{
+			// The job must always complete, otherwise the requests for that URL would wait forever
+			Log.e(TAG, "Failed to fetch " + fetchJob.url + ": ", e);
+		}
+		var finalSource = source;
+		handler.post(() -> onFetched(fetchJob, finalSource));
+	}
+
+	private void onFetched(FetchJob fetchJob, Source source)
+	{
+		fetchJobs.remove(fetchJob.url);
+		for (var decodeJob : fetchJob.decodeJobs)
+		{
+			decodeJob.fetchJob = null;
+			if (source == null)
+			{
+				decodeJobs.remove(decodeJob.key);
+				deliver(decodeJob, null);
+				continue;
+			}
+			decodeJob.task = new PrioritizedTask(() -> runDecode(decodeJob, source), decodeJob.priority, sequence++);
+			decodeExecutor.execute(decodeJob.task);
+		}
+		if (fetchJob.staleData != null && !fetchJob.decodeJobs.isEmpty())
+		{
+			revalidate(fetchJob);
+		}
+	}
+
+	/**
+	 * Fetches a stale image again in the background. The stale one is displayed in the meantime.
+	 */
+	private void revalidate(FetchJob fetchJob)
+	{
+		if (!revalidations.add(fetchJob.url))
+		{
+			return;
+		}
+		var url = fetchJob.url;
+		var input = fetchJob.input;
+		var staleData = fetchJob.staleData;
+		var decodeJob = fetchJob.decodeJobs.get(0);
+		var width = decodeJob.width;
+		var height = decodeJob.height;
+		ioExecutor.execute(new PrioritizedTask(() -> runRevalidation(url, input, staleData, width, height), PRIORITY_REVALIDATION, sequence++));
+	}
+
+	private void runRevalidation(String url, AsyncImageView.ImageInput input, byte[] staleData, int width, int height)
+	{
+		try
+		{
+			var data = fetchAndStore(url, input, true);
+			if (data == null)
+			{
+				Log.d(TAG, "Couldn't revalidate " + url + ", keeping the cached one");
+			}
+			else if (cache != null && !Arrays.equals(data, staleData))
+			{
+				// The views get the new image the next time they're bound
+				var bitmap = decode(url, () -> new ByteArrayInputStream(data), width, height);
+				if (bitmap != null)
+				{
+					cache.releaseBitmap(bitmap);
+				}
+			}
+		}
+		catch (RuntimeException e)
+		{
+			Log.e(TAG, "Failed to revalidate " + url + ": ", e);
+		}
+		finally
+		{
+			handler.post(() -> revalidations.remove(url));
+		}
+	}
+
+	private void runDecode(DecodeJob decodeJob, Source source)
+	{
+		Bitmap bitmap = null;
+		try
+		{
+			bitmap = decode(decodeJob.url, source, decodeJob.width, decodeJob.height);
+		}
+		catch (RuntimeException e)
+		{
+			// Like for fetching, the job must always complete
+			ImageMetrics.decodeFailures.incrementAndGet();
+			Log.e(TAG, "Failed to decode " + decodeJob.url + ": ", e);
+		}
+		var finalBitmap = bitmap;
+		handler.post(() -> {
+			decodeJobs.remove(decodeJob.key);
+			deliver(decodeJob, finalBitmap);
+			if (finalBitmap != null && cache != null)
+			{
+				cache.releaseBitmap(finalBitmap);
+			}
+		});
+	}
+
+	private static void deliver(DecodeJob decodeJob, Bitmap bitmap)
+	{
+		for (var request : decodeJob.requests)
+		{
+			request.callback.onImageLoaded(bitmap);
+		}
+		decodeJob.requests.clear();
+	}
+
+	/**
+	 * Gets the encoded image from the disk cache or its source. A stale image from the disk
+	 * cache is used as is and kept in the job, to be revalidated.
+	 */
+	private Source getImageSource(FetchJob fetchJob)
+	{
+		var imageUrl = fetchJob.url;
+		byte[] data = null;
+		var useDiskCache = diskCache != null && !imageUrl.startsWith("data:"); // Raw data: URLs are too long for keys
+
+		if (useDiskCache)
+		{
+			data = diskCache.getImageData(imageUrl);
+			(data != null ? ImageMetrics.diskHits : ImageMetrics.diskMisses).incrementAndGet();
+		}
+
+		if (data == null && InlineImages.isInline(imageUrl))
+		{
+			return getInlineSource(imageUrl, useDiskCache);
+		}
+
+		if (data == null)
+		{
+			data = fetchAndStore(imageUrl, fetchJob.input, useDiskCache);
+			if (data == null)
+			{
+				return null;
+			}
+		}
+		else if (!InlineImages.isInline(imageUrl) && diskCache.isImageDataStale(imageUrl)) // Inline images are named after their content, they never change
+		{
+			fetchJob.staleData = data;
+		}
+		var finalData = data;
+		return () -> new ByteArrayInputStream(finalData);
+	}
+
+	/**
+	 * Fetches an image and puts it in the disk cache.
+	 *
+	 * @return the image data or null if it's not available
+	 */
+	private byte[] fetchAndStore(String imageUrl, AsyncImageView.ImageInput input, boolean useDiskCache)
+	{
+		var start = SystemClock.elapsedRealtime();
+		var data = fetch(imageUrl, input);
+		ImageMetrics.fetches.incrementAndGet();
+		if (data == null)
+		{
+			ImageMetrics.fetchFailures.incrementAndGet();
+			return null;
+		}
+		ImageMetrics.fetchLatency.record(SystemClock.elapsedRealtime() - start);
+		ImageMetrics.bytesFetched.addAndGet(data.length);
+		if (useDiskCache)
+		{
+			diskCache.addImageData(imageUrl, data);
+		}
+		return data;
+	}
+
+	/**
+	 * Inline images are decoded from the text of their message while being read, so that
+	 * the data is never held in memory. Their key is derived from their content so they never need
+	 * to be fetched again.
+	 */
+	private Source getInlineSource(String imageUrl, boolean useDiskCache)
+	{
+		if (useDiskCache)
+		{
+			var in = InlineImages.openStream(imageUrl);
+			if (in == null)
+			{
+				return null;
+			}
+			diskCache.addImageData(imageUrl, in);
+		}
+		return () -> {
+			var in = InlineImages.openStream(imageUrl);
+			if (in == null)
+			{
+				throw new IOException("Inline image " + imageUrl + " is gone");
+			}
+			return in;
+		};
+	}
+
+	private Bitmap decode(String imageUrl, Source source, int imageWidth, int imageHeight)
+	{
+		Bitmap bitmap = null;
+		int retry = 2;
+
+		while (retry > 0)
+		{
+			try
+			{
+				var start = SystemClock.elapsedRealtime();
+				bitmap = decodeSampled(source, imageWidth, imageHeight);
+				ImageMetrics.decodes.incrementAndGet();
+
+				if (bitmap != null)
+				{
+					ImageMetrics.decodeTime.record(SystemClock.elapsedRealtime() - start);
+					ImageMetrics.bytesDecoded.addAndGet(bitmap.getAllocationByteCount());
+					if (cache != null)
+					{
+						// Acquired until it's delivered so that it can't be evicted and reused before a view displays it
+						cache.acquireBitmap(bitmap);
+						cache.addBitmap(imageUrl, bitmap);
+					}
+				}
+				else
+				{
+					ImageMetrics.decodeFailures.incrementAndGet();
+					Log.d(TAG, "error decoding bitmap");
+				}
+				retry = 0;
+			}
+			catch (IOException e)
+			{
+				ImageMetrics.decodeFailures.incrementAndGet();
+				Log.d(TAG, imageUrl + " IOException: " + e);
+				retry = 0;
+			}
+			catch (OutOfMemoryError e)
+			{
+				Log.d(TAG, "out of memory, trying to evict cache");
+				if (cache != null)
+				{
+					cache.evictAll();
+					retry--;
+					ImageMetrics.oomRetries.incrementAndGet();
+				}
+				else
+				{
+					retry = 0;
+				}
+			}
+		}
+		return bitmap;
+	}
+
+	/**
+	 * Decodes the image near the size it will be displayed at. The bounds are read first so
+	 * that the full resolution image never has to be in memory.
+	 *
+	 * @param source      the encoded image
+	 * @param imageWidth  the width to fit in
+	 * @param imageHeight the height to fit in
+	 * @return the bitmap, scaled to fit in the view with the proper aspect ratio, or null
+	 */
+	private Bitmap decodeSampled(Source source, int imageWidth, int imageHeight) throws IOException
+	{
+		BitmapFactory.Options options = new BitmapFactory.Options();
+		options.inJustDecodeBounds = true;
+		decodeStream(source, options);
+		if (options.outWidth <= 0 || options.outHeight <= 0)
+		{
+			return null;
+		}
+
+		int srcWidth = options.outWidth;
+		int srcHeight = options.outHeight;
+
+		/*
+		 * Get the biggest corner.
+		 */
+		float aspectRatio = (float) srcWidth / srcHeight;
+		int width;
+		int height;
+		if (srcWidth > srcHeight)
+		{
+			width = imageWidth;
+			height = (int) ((float) imageWidth / aspectRatio);
+
+			if (height > imageHeight)
+			{
+				height = imageHeight;
+				width = (int) ((float) height * aspectRatio);
+			}
+		}
+		else
+		{
+			height = imageHeight;
+			width = (int) ((float) imageHeight * aspectRatio);
+
+			if (width > imageWidth)
+			{
+				width = imageWidth;
+				height = (int) ((float) width / aspectRatio);
+			}
+		}
+		width = Math.max(width, 1);
+		height = Math.max(height, 1);
+
+		options.inJustDecodeBounds = false;
+		options.inSampleSize = calculateInSampleSize(srcWidth, srcHeight, width, height);
+
+		// The decoder scales the rest of the way itself, so there's no second bitmap to allocate
+		var sampledWidth = (srcWidth + options.inSampleSize - 1) / options.inSampleSize;
+		if (sampledWidth != width)
+		{
+			options.inScaled = true;
+			options.inDensity = sampledWidth;
+			options.inTargetDensity = width;
+		}
+
+		if (cache != null)
+		{
+			options.inMutable = true;
+
+			Bitmap inBitmap = cache.getReusableBitmap(options);
+			if (inBitmap != null)
+			{
+				options.inBitmap = inBitmap;
+			}
+		}
+
+		Bitmap bitmap;
+		try
+		{
+			bitmap = decodeStream(source, options);
+		}
+		catch (IllegalArgumentException e)
+		{
+			/* this happens when the input is wrong and we use an inBitmap */
+			options.inBitmap = null;
+			bitmap = decodeStream(source, options);
+		}
+
+		if (bitmap == null)
+		{
+			return null;
+		}
+		Log.d(TAG, "decoded " + srcWidth + "x" + srcHeight + " at 1/" + options.inSampleSize + " to " + bitmap.getWidth() + "x" + bitmap.getHeight() + " for " + width + "x" + height);
+
+		// The densities were only used for scaling, the bitmap must be displayed as is
+		bitmap.setDensity(Bitmap.DENSITY_NONE);
+		return bitmap;
+	}
+
+	private static Bitmap decodeStream(Source source, BitmapFactory.Options options) throws IOException
+	{
+		try (var in = source.open())
+		{
+			return BitmapFactory.decodeStream(in, null, options);
+		}
+	}
+
+	/**
+	 * Finds the biggest power of 2 that keeps the decoded image at least as big as the target.
+	 */
+	private static int calculateInSampleSize(int srcWidth, int srcHeight, int targetWidth, int targetHeight)
+	{
+		int inSampleSize = 1;
+		while (srcWidth / (inSampleSize * 2) >= targetWidth && srcHeight / (inSampleSize * 2) >= targetHeight)
+		{
+			inSampleSize *= 2;
+		}
+		return inSampleSize;
+	}
+
+	/**
+	 * Gets the encoded image from its source.
+	 *
+	 * @param imageUrl where the image is
+	 * @param input    where to fetch the image from, null to use HttpURLConnection
+	 * @return the image data or null if it's not available
+	 */
+	private static byte[] fetch(String imageUrl, AsyncImageView.ImageInput input)
+	{
+		AsyncImageView.ImageConnection connection = null;
+		HttpURLConnection urlConnection = null;
+		try
+		{
+			InputStream in = null;
+
+			if (input != null)
+			{
+				connection = input.getImageConnection();
+				connection.connect(imageUrl);
+				in = connection.getInputStream();
+			}
+			else
+			{
+				urlConnection = (HttpURLConnection) new URL(imageUrl).openConnection();
+				if (urlConnection.getResponseCode() == HttpURLConnection.HTTP_OK)
+				{
+					in = urlConnection.getInputStream();
+				}
+			}
+			return in != null ? readAll(in) : null;
+		}
+		catch (IOException e)
+		{
+			Log.d(TAG, imageUrl + " IOException: " + e);
+			return null;
+		}
+		finally
+		{
+			if (connection != null)
+			{
+				connection.disconnect();
+			}
+			if (urlConnection != null)
+			{
+				urlConnection.disconnect();
+			}
+		}
+	}
+
+	private static byte[] readAll(InputStream in) throws IOException
+	{
+		var out = new ByteArrayOutputStream();
+		var buffer = new byte[8192];
+		int read;
+		while ((read = in.read(buffer)) != -1)
+		{
+			out.write(buffer, 0, read);
+		}
+		return out.toByteArray();
+	}
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2025 by David Gerber - https://zapek.com
+ *
+ * This file is part of Xeres-Android.
+ *
+ * Xeres-Android is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Xeres-Android is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Xeres-Android.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.xeres.mobile.view;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import io.xeres.mobile.util.BitmapPool;
+
+/**
+ * Counters and histograms of the image loading path, to size the caches and the thread
+ * pools from real data. Everything can be updated from any thread.
+ */
+public final class ImageMetrics
+{
+	private ImageMetrics()
+	{
+		throw new UnsupportedOperationException("Utility class");
+	}
+
+	/**
+	 * Histogram of durations with power of 2 buckets, from 1 ms to 16 s.
+	 */
+	public static class Histogram
+	{
+		private static final int BUCKETS = 16;
+
+		private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+		private final AtomicLong count = new AtomicLong();
+		private final AtomicLong sum = new AtomicLong();
+
+		public void record(long milliseconds)
+		{
+			var bucket = milliseconds <= 1 ? 0 : Math.min(64 - Long.numberOfLeadingZeros(milliseconds - 1), BUCKETS - 1);
+			buckets.incrementAndGet(bucket);
+			count.incrementAndGet();
+			sum.addAndGet(milliseconds);
+		}
+
+		public long getCount()
+		{
+			return count.get();
+		}
+
+		public long getMean()
+		{
+			var n = count.get();
+			return n > 0 ? sum.get() / n : 0L;
+		}
+
+		/**
+		 * Gets an upper bound of a percentile.
+		 *
+		 * @param percentile the percentile, from 0 to 100
+		 * @return the upper bound of the bucket it falls in, in milliseconds
+		 */
+		public long getPercentile(int percentile)
+		{
+			var n = count.get();
+			if (n == 0)
+			{
+				return 0L;
+			}
+			var target = (n * percentile + 99) / 100;
+			var seen = 0L;
+			for (var i = 0; i < BUCKETS; i++)
+			{
+				seen += buckets.get(i);
+				if (seen >= target)
+				{
+					return 1L << i;
+				}
+			}
+			return 1L << (BUCKETS - 1);
+		}
+
+		public long getBucket(int index)
+		{
+			return buckets.get(index);
+		}
+
+		private void reset()
+		{
+			for (var i = 0; i < BUCKETS; i++)
+			{
+				buckets.set(i, 0L);
+			}
+			count.set(0L);
+			sum.set(0L);
+		}
+
+		@Override
+		public String toString()
+		{
+			return String.format(Locale.ROOT, "n=%d mean=%dms p50<=%dms p90<=%dms p99<=%dms", getCount(), getMean(), getPercentile(50), getPercentile(90), getPercentile(99));
+		}
+	}
+
+	public static final AtomicLong memoryHits = new AtomicLong();
+	public static final AtomicLong memoryMisses = new AtomicLong();
+	public static final AtomicLong diskHits = new AtomicLong();
+	public static final AtomicLong diskMisses = new AtomicLong();
+	public static final AtomicLong fetches = new AtomicLong();
+	public static final AtomicLong fetchFailures = new AtomicLong();
+	public static final AtomicLong bytesFetched = new AtomicLong();
+	public static final AtomicLong decodes = new AtomicLong();
+	public static final AtomicLong decodeFailures = new AtomicLong();
+	public static final AtomicLong bytesDecoded = new AtomicLong();
+	public static final AtomicLong oomRetries = new AtomicLong();
+	public static final AtomicLong coalescedRequests = new AtomicLong();
+	public static final AtomicLong cancellations = new AtomicLong();
+
+	public static final Histogram fetchLatency = new Histogram();
+	public static final Histogram decodeTime = new Histogram();
+
+	public static void reset()
+	{
+		for (var counter : new AtomicLong[]{memoryHits, memoryMisses, diskHits, diskMisses, fetches, fetchFailures, bytesFetched, decodes, decodeFailures, bytesDecoded, oomRetries, coalescedRequests, cancellations})
+		{
+			counter.set(0L);
+		}
+		fetchLatency.reset();
+		decodeTime.reset();
+	}
+
+	/**
+	 * Gets a summary, for debugging.
+	 *
+	 * @param bitmapPool the pool of reusable bitmaps, can be null
+	 * @return the summary, one metric per line
+	 */
+	public static String getReport(BitmapPool bitmapPool)
+	{
+		var sb = new StringBuilder();
+		sb.append("Memory: ").append(formatRate(memoryHits.get(), memoryMisses.get())).append("\n");
+		sb.append("Disk: ").append(formatRate(diskHits.get(), diskMisses.get())).append("\n");
+		if (bitmapPool != null)
+		{
+			sb.append("Pool: ").append(formatRate(bitmapPool.getHits(), bitmapPool.getMisses()))
+					.append(", ").append(bitmapPool.getSize() / 1024).append("/").append(bitmapPool.getMaxSize() / 1024).append(" KB\n");
+		}
+		sb.append("Fetches: ").append(fetches.get()).append(", failed ").append(fetchFailures.get())
+				.append(", ").append(bytesFetched.get() / 1024).append(" KB\n");
+		sb.append("Fetch latency: ").append(fetchLatency).append("\n");
+		sb.append("Decodes: ").append(decodes.get()).append(", failed ").append(decodeFailures.get())
+				.append(", ").append(bytesDecoded.get() / 1024).append(" KB decoded\n");
+		sb.append("Decode time: ").append(decodeTime).append("\n");
+		sb.append("OOM retries: ").append(oomRetries.get()).append("\n");
+		sb.append("Coalesced requests: ").append(coalescedRequests.get()).append("\n");
+		sb.append("Cancellations: ").append(cancellations.get());
+		return sb.toString();
+	}
+
+	private static String formatRate(long hits, long misses)
+	{
+		var total = hits + misses;
+		return String.format(Locale.ROOT, "%d/%d hits (%d%%)", hits, total, total > 0 ? hits * 100 / total : 0);
+	}
+}
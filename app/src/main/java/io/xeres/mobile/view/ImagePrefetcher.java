@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2025 by David Gerber - https://zapek.com
+ *
+ * This file is part of Xeres-Android.
+ *
+ * Xeres-Android is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Xeres-Android is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Xeres-Android.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.xeres.mobile.view;
+
+import android.content.Context;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+/**
+ * Loads the images of the rows that are about to be scrolled in, in the direction of the scroll,
+ * so that they're in the memory cache when the rows appear. Nothing is loaded during a fling
+ * and the prefetches that went out of range are cancelled. All methods must be called from the main thread.
+ */
+public class ImagePrefetcher
+{
+	public interface Source
+	{
+		int getCount();
+
+		/**
+		 * Gets the image of a row.
+		 *
+		 * @param position the position of the row
+		 * @return the URL of the image or null if there's none
+		 */
+		String getImageUrl(int position);
+	}
+
+	private final ImageEngine imageEngine;
+	private final AsyncImageView.ImageCache imageCache;
+	private final Source source;
+	private final int distance;
+	private final int width;
+	private final int height;
+	private final Map<String, ImageEngine.Request> requests = new HashMap<>();
+	private AsyncImageView.ImageInput imageInput;
+	private int firstVisible = -1;
+	private int lastVisible = -1;
+	private boolean forward = true;
+	private boolean paused;
+
+	/**
+	 * Creates a prefetcher.
+	 *
+	 * @param context  the context
+	 * @param source   gives the images of the rows
+	 * @param distance the number of rows to prefetch
+	 * @param width    the width of the image views
+	 * @param height   the height of the image views
+	 */
+	public ImagePrefetcher(Context context, Source source, int distance, int width, int height)
+	{
+		imageEngine = ImageEngine.getInstance(context);
+		var applicationContext = context.getApplicationContext();
+		imageCache = applicationContext instanceof AsyncImageView.ImageCache ? (AsyncImageView.ImageCache) applicationContext : null;
+		this.source = source;
+		this.distance = distance;
+		this.width = width;
+		this.height = height;
+	}
+
+	public void setImageInput(AsyncImageView.ImageInput imageInput)
+	{
+		this.imageInput = imageInput;
+	}
+
+	/**
+	 * To be called when the visible rows change.
+	 */
+	public void onScrolled(int firstVisible, int lastVisible)
+	{
+		if (firstVisible == this.firstVisible && lastVisible == this.lastVisible)
+		{
+			return;
+		}
+		if (this.firstVisible != -1 && firstVisible != this.firstVisible)
+		{
+			forward = firstVisible > this.firstVisible;
+		}
+		this.firstVisible = firstVisible;
+		this.lastVisible = lastVisible;
+		prefetch();
+	}
+
+	/**
+	 * Pauses the prefetching, for example during a fling where the rows go by too fast to be useful.
+	 */
+	public void setPaused(boolean paused)
+	{
+		if (this.paused == paused)
+		{
+			return;
+		}
+		this.paused = paused;
+		if (paused)
+		{
+			cancelAll();
+		}
+		else
+		{
+			prefetch();
+		}
+	}
+
+	public void cancelAll()
+	{
+		requests.values().forEach(ImageEngine.Request::cancel);
+		requests.clear();
+	}
+
+	private void prefetch()
+	{
+		if (paused || firstVisible == -1)
+		{
+			return;
+		}
+
+		int start;
+		int end;
+		if (forward)
+		{
+			start = lastVisible + 1;
+			end = Math.min(lastVisible + distance, source.getCount() - 1);
+		}
+		else
+		{
+			start = Math.max(firstVisible - distance, 0);
+			end = firstVisible - 1;
+		}
+
+		var wanted = new HashSet<String>();
+		for (var position = start; position <= end; position++)
+		{
+			var url = source.getImageUrl(position);
+			if (url != null && (imageCache == null || imageCache.getBitmap(url) == null))
+			{
+				wanted.add(url);
+			}
+		}
+
+		var iterator = requests.entrySet().iterator();
+		while (iterator.hasNext())
+		{
+			var entry = iterator.next();
+			if (!wanted.contains(entry.getKey()))
+			{
+				entry.getValue().cancel();
+				iterator.remove();
+			}
+		}
+
+		for (var url : wanted)
+		{
+			if (!requests.containsKey(url))
+			{
+				requests.put(url, imageEngine.load(url, width, height, ImageEngine.PRIORITY_PREFETCH, imageInput, bitmap -> requests.remove(url)));
+			}
+		}
+	}
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2025 by David Gerber - https://zapek.com
+ *
+ * This file is part of Xeres-Android.
+ *
+ * Xeres-Android is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Xeres-Android is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Xeres-Android.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.xeres.mobile.service.gson;
+
+import org.junit.Test;
+
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
+
+import static org.junit.Assert.assertEquals;
+
+public class IsoInstantParserTest
+{
+	@Test
+	public void parse_utc()
+	{
+		assertEquals(Instant.parse("2025-03-01T12:34:56Z"), IsoInstantParser.parse("2025-03-01T12:34:56Z"));
+	}
+
+	@Test
+	public void parse_fractionDigits()
+	{
+		var fraction = "123456789";
+		for (var digits = 1; digits <= 9; digits++)
+		{
+			var text = "2025-03-01T12:34:56." + fraction.substring(0, digits) + "Z";
+			assertEquals(text, Instant.parse(text), IsoInstantParser.parse(text));
+		}
+	}
+
+	@Test
+	public void parse_moreThanNineFractionDigits_truncates()
+	{
+		assertEquals(Instant.parse("2025-03-01T12:34:56.123456789Z"), IsoInstantParser.parse("2025-03-01T12:34:56.1234567891Z"));
+	}
+
+	@Test
+	public void parse_offsets()
+	{
+		for (var text : new String[]{"2025-03-01T12:34:56+05:30", "2025-03-01T12:34:56.5-08:00", "2025-03-01T00:00:00+00:00", "2025-01-01T00:30:00+01:00"})
+		{
+			assertEquals(text, OffsetDateTime.parse(text).toInstant(), IsoInstantParser.parse(text));
+		}
+	}
+
+	@Test
+	public void parse_dates()
+	{
+		for (var text : new String[]{"1970-01-01T00:00:00Z", "1969-12-31T23:59:59Z", "2000-02-29T10:00:00Z", "2024-12-31T23:59:59.999Z", "2100-03-01T00:00:00Z"})
+		{
+			assertEquals(text, Instant.parse(text), IsoInstantParser.parse(text));
+		}
+	}
+
+	@Test
+	public void parse_formsOnlyTheStandardParserKnows()
+	{
+		// Offsets with seconds aren't handled by the fast path
+		var text = "2025-03-01T12:34:56+01:00:30";
+		assertEquals(OffsetDateTime.parse(text).toInstant(), IsoInstantParser.parse(text));
+	}
+
+	@Test(expected = DateTimeParseException.class)
+	public void parse_invalidDate_throws()
+	{
+		IsoInstantParser.parse("2025-02-30T12:34:56Z");
+	}
+
+	@Test(expected = DateTimeParseException.class)
+	public void parse_nonLeapYear_throws()
+	{
+		IsoInstantParser.parse("2100-02-29T12:34:56Z");
+	}
+
+	@Test(expected = DateTimeParseException.class)
+	public void parse_invalidTime_throws()
+	{
+		IsoInstantParser.parse("2025-03-01T24:34:56Z");
+	}
+
+	@Test
+	public void parse_emptyFraction_sameAsStandardParser()
+	{
+		var text = "2025-03-01T12:34:56.Z";
+		assertEquals(OffsetDateTime.parse(text).toInstant(), IsoInstantParser.parse(text));
+	}
+
+	@Test(expected = DateTimeParseException.class)
+	public void parse_missingOffset_throws()
+	{
+		IsoInstantParser.parse("2025-03-01T12:34:56");
+	}
+
+	@Test(expected = DateTimeParseException.class)
+	public void parse_letters_throws()
+	{
+		IsoInstantParser.parse("2025-0a-01T12:34:56Z");
+	}
+
+	@Test(expected = DateTimeParseException.class)
+	public void parse_garbage_throws()
+	{
+		IsoInstantParser.parse("yesterday");
+	}
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2025 by David Gerber - https://zapek.com
+ *
+ * This file is part of Xeres-Android.
+ *
+ * Xeres-Android is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Xeres-Android is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Xeres-Android.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.xeres.mobile.service.gson;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.function.Supplier;
+
+import io.xeres.mobile.util.JsonUtils;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the streaming adapters with what JsonUtils used before them, on a backlog of 10k
+ * messages. The results depend on the JVM, so it's not part of the normal run. To run it,
+ * remove the {@link Ignore} and use {@code ./gradlew testDebugUnitTest --tests '*JsonParsingBenchmark'}.
+ * The measurements are in the messages of the assertions.
+ */
+@Ignore("Benchmark, run it manually")
+public class JsonParsingBenchmark
+{
+	private static final int MESSAGE_COUNT = 10_000;
+	private static final int WARMUP_ROUNDS = 5;
+	private static final int MEASURED_ROUNDS = 10;
+
+	private static class Measure
+	{
+		private final long nanos;
+		private final long allocatedBytes;
+
+		private Measure(long nanos, long allocatedBytes)
+		{
+			this.nanos = nanos;
+			this.allocatedBytes = allocatedBytes;
+		}
+
+		@Override
+		public String toString()
+		{
+			return nanos / MESSAGE_COUNT + " ns/message, " + allocatedBytes / MESSAGE_COUNT + " bytes/message";
+		}
+	}
+
+	@Test
+	public void parseBacklog()
+	{
+		var json = JsonParsingTest.createBacklogJson(MESSAGE_COUNT);
+
+		var reflective = measure(() -> JsonParsingTest.REFLECTIVE_GSON.fromJson(json, JsonParsingTest.BACKLOG_LIST));
+		var streaming = measure(() -> JsonUtils.GSON.fromJson(json, JsonParsingTest.BACKLOG_LIST));
+
+		assertTrue("reflective: " + reflective + ", streaming: " + streaming, streaming.allocatedBytes < reflective.allocatedBytes);
+	}
+
+	@Test
+	public void parseTimestamps()
+	{
+		var timestamps = new ArrayList<String>(MESSAGE_COUNT);
+		var start = Instant.parse("2025-03-01T12:34:56.789Z");
+		for (var i = 0; i < MESSAGE_COUNT; i++)
+		{
+			timestamps.add(start.plusMillis(i * 7919L).toString());
+		}
+
+		var standard = measure(() -> {
+			var instants = new ArrayList<Instant>(MESSAGE_COUNT);
+			timestamps.forEach(timestamp -> instants.add(Instant.parse(timestamp)));
+			return instants;
+		});
+		var fast = measure(() -> {
+			var instants = new ArrayList<Instant>(MESSAGE_COUNT);
+			timestamps.forEach(timestamp -> instants.add(IsoInstantParser.parse(timestamp)));
+			return instants;
+		});
+
+		assertTrue("Instant.parse(): " + standard + ", IsoInstantParser: " + fast, fast.allocatedBytes < standard.allocatedBytes);
+	}
+
+	/**
+	 * Runs a parse a few times to warm up, then gives the average of the next rounds.
+	 */
+	private static Measure measure(Supplier<Object> parse)
+	{
+		for (var i = 0; i < WARMUP_ROUNDS; i++)
+		{
+			parse.get();
+		}
+		var allocatedBefore = getAllocatedBytes();
+		var start = System.nanoTime();
+		for (var i = 0; i < MEASURED_ROUNDS; i++)
+		{
+			parse.get();
+		}
+		var nanos = (System.nanoTime() - start) / MEASURED_ROUNDS;
+		return new Measure(nanos, (getAllocatedBytes() - allocatedBefore) / MEASURED_ROUNDS);
+	}
+
+	private static long getAllocatedBytes()
+	{
+		var threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		return threadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+}
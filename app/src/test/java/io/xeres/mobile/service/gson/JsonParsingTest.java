@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2025 by David Gerber - https://zapek.com
+ *
+ * This file is part of Xeres-Android.
+ *
+ * Xeres-Android is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Xeres-Android is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Xeres-Android.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.xeres.mobile.service.gson;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonDeserializer;
+import com.google.gson.reflect.TypeToken;
+
+import org.junit.Test;
+
+import java.lang.reflect.Type;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import io.xeres.mobile.service.json.ChatBacklog;
+import io.xeres.mobile.util.JsonUtils;
+
+import static org.junit.Assert.assertEquals;
+
+public class JsonParsingTest
+{
+	static final Type BACKLOG_LIST = new TypeToken<List<ChatBacklog>>()
+	{
+	}.getType();
+
+	// What JsonUtils used before the streaming adapters: reflection for the objects and a JsonElement tree for each timestamp
+	static final Gson REFLECTIVE_GSON = new GsonBuilder()
+			.registerTypeAdapter(Instant.class, (JsonDeserializer<Instant>) (json, typeOfT, context) -> Instant.parse(json.getAsString()))
+			.create();
+
+	@Test
+	public void parse_backlog_sameAsReflective()
+	{
+		var json = createBacklogJson(1000);
+
+		List<ChatBacklog> reflectiveResult = REFLECTIVE_GSON.fromJson(json, BACKLOG_LIST);
+		List<ChatBacklog> streamingResult = JsonUtils.GSON.fromJson(json, BACKLOG_LIST);
+
+		assertEquals(1000, streamingResult.size());
+		for (var i = 0; i < streamingResult.size(); i++)
+		{
+			assertEquals(reflectiveResult.get(i).getCreated(), streamingResult.get(i).getCreated());
+			assertEquals(reflectiveResult.get(i).getMessage(), streamingResult.get(i).getMessage());
+			assertEquals(reflectiveResult.get(i).isOwn(), streamingResult.get(i).isOwn());
+		}
+	}
+
+	static String createBacklogJson(int count)
+	{
+		var backlogs = new ArrayList<ChatBacklog>(count);
+		var created = Instant.parse("2025-03-01T12:34:56.789Z");
+		for (var i = 0; i < count; i++)
+		{
+			var backlog = new ChatBacklog(i % 3 == 0, "Message number " + i + ", with some text to make it look like a real one");
+			backlog.setCreated(created.plusMillis(i * 7919L));
+			backlogs.add(backlog);
+		}
+		return JsonUtils.GSON.toJson(backlogs, BACKLOG_LIST);
+	}
+}
@@ -0,0 +1,465 @@
+/*
+ * Copyright (c) 2025 by David Gerber - https://zapek.com
+ *
+ * This file is part of Xeres-Android.
+ *
+ * Xeres-Android is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Xeres-Android is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Xeres-Android.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.xeres.mobile.util;
+
+import androidx.annotation.Nullable;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListUpdateCallback;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BacklogWindowTest
+{
+	private static class Message
+	{
+		private final String text;
+		private final boolean synced;
+
+		private Message(String text, boolean synced)
+		{
+			this.text = text;
+			this.synced = synced;
+		}
+
+		@Override
+		public String toString()
+		{
+			return synced ? text : text + "?";
+		}
+	}
+
+	private static final DiffUtil.ItemCallback<Message> DIFF_CALLBACK = new DiffUtil.ItemCallback<>()
+	{
+		@Override
+		public boolean areItemsTheSame(Message oldItem, Message newItem)
+		{
+			return oldItem.text.equals(newItem.text);
+		}
+
+		@Override
+		public boolean areContentsTheSame(Message oldItem, Message newItem)
+		{
+			return oldItem.synced == newItem.synced;
+		}
+	};
+
+	/**
+	 * Keeps the item count the way the adapter sees it.
+	 */
+	private static class CountingCallback implements ListUpdateCallback
+	{
+		private int count;
+		private int inserted;
+		private int removed;
+
+		@Override
+		public void onInserted(int position, int count)
+		{
+			assertTrue("inserted at " + position + " in " + this.count, position >= 0 && position <= this.count);
+			this.count += count;
+			inserted += count;
+		}
+
+		@Override
+		public void onRemoved(int position, int count)
+		{
+			assertTrue("removed " + count + " at " + position + " in " + this.count, position >= 0 && position + count <= this.count);
+			this.count -= count;
+			removed += count;
+		}
+
+		@Override
+		public void onMoved(int fromPosition, int toPosition)
+		{
+			assertTrue(fromPosition < count && toPosition < count);
+		}
+
+		@Override
+		public void onChanged(int position, int count, @Nullable Object payload)
+		{
+			assertTrue(position + count <= this.count);
+		}
+	}
+
+	private static class RecordingLoader implements BacklogWindow.PageLoader<Message>
+	{
+		private final List<Message> olderRequests = new ArrayList<>();
+		private final List<Consumer<List<Message>>> olderConsumers = new ArrayList<>();
+		private final List<Message> newerRequests = new ArrayList<>();
+		private final List<Consumer<List<Message>>> newerConsumers = new ArrayList<>();
+
+		@Override
+		public void loadOlder(Message first, Consumer<List<Message>> consumer)
+		{
+			olderRequests.add(first);
+			olderConsumers.add(consumer);
+		}
+
+		@Override
+		public void loadNewer(Message last, Consumer<List<Message>> consumer)
+		{
+			newerRequests.add(last);
+			newerConsumers.add(consumer);
+		}
+	}
+
+	private final Deque<Runnable> mainQueue = new ArrayDeque<>();
+	private final Deque<Runnable> diffQueue = new ArrayDeque<>();
+	private CountingCallback updates;
+	private RecordingLoader loader;
+	private BacklogWindow<Message> window;
+
+	@Before
+	public void setUp()
+	{
+		mainQueue.clear();
+		diffQueue.clear();
+		updates = new CountingCallback();
+		loader = new RecordingLoader();
+	}
+
+	@Test
+	public void liveMessagesAreAppended()
+	{
+		create(synced("a", "b"));
+
+		window.addLive(live("c"));
+
+		assertItems("a", "b", "c?");
+		assertEquals(1, updates.inserted);
+	}
+
+	@Test
+	public void syncedMessagesAreAppendedWhenNothingIsProvisional()
+	{
+		create(synced("a", "b"));
+
+		window.addSynced(synced("c", "d"));
+
+		assertTrue(diffQueue.isEmpty());
+		assertItems("a", "b", "c", "d");
+	}
+
+	@Test
+	public void syncReplacesTheProvisionalMessages()
+	{
+		create(synced("a", "b"));
+		window.addLive(live("c", "d"));
+
+		window.addSynced(synced("c", "d", "e"));
+		assertItems("a", "b", "c?", "d?");
+
+		runAll();
+		assertItems("a", "b", "c", "d", "e");
+		assertEquals(0, updates.removed);
+	}
+
+	@Test
+	public void liveMessagesDuringSyncAreHeld()
+	{
+		create(synced("a", "b"));
+		window.addLive(live("c"));
+		window.addSynced(synced("c", "d"));
+
+		window.addLive(live("e"));
+		assertItems("a", "b", "c?");
+
+		runAll();
+		assertItems("a", "b", "c", "d", "e?");
+
+		window.addSynced(synced("e", "f"));
+		runAll();
+		assertItems("a", "b", "c", "d", "e", "f");
+	}
+
+	@Test
+	public void changesDuringReplaceAllAreHeld()
+	{
+		create(synced("a", "b", "c"));
+
+		window.replaceAll(synced("x", "y"));
+		window.addLive(live("z"));
+		window.addSynced(synced("z"));
+		assertItems("a", "b", "c");
+
+		runDiff();
+		assertItems("a", "b", "c");
+
+		runAll();
+		assertItems("x", "y", "z");
+	}
+
+	@Test
+	public void replaceAllDuringSyncIsHeld()
+	{
+		create(synced("a", "b"));
+		window.addLive(live("c"));
+		window.addSynced(synced("c"));
+
+		window.replaceAll(synced("x"));
+		window.addLive(live("y"));
+
+		runAll();
+		assertItems("x", "y?");
+	}
+
+	@Test
+	public void pageLoadedBeforeReplaceAllIsDropped()
+	{
+		create(synced(range(0, 30)));
+		window.setPageLoader(loader);
+		window.onScrolled(0, 5);
+		runAll();
+		assertEquals(1, loader.olderRequests.size());
+		assertEquals("0", loader.olderRequests.get(0).text);
+
+		window.replaceAll(synced("x", "y"));
+		runAll();
+		loader.olderConsumers.get(0).accept(synced("o1", "o2"));
+		runAll();
+		assertItems("x", "y");
+
+		// The new items get their own page
+		assertEquals(2, loader.olderRequests.size());
+		assertEquals("x", loader.olderRequests.get(1).text);
+	}
+
+	@Test
+	public void pageLoadedDuringSyncIsHeld()
+	{
+		create(synced(range(0, 30)));
+		window.setPageLoader(loader);
+		window.onScrolled(0, 5);
+		runAll();
+		window.addLive(live("l"));
+		window.addSynced(synced("l"));
+
+		loader.olderConsumers.get(0).accept(synced("o1", "o2"));
+		assertEquals(31, window.size());
+		assertEquals(31, updates.count);
+
+		runAll();
+		assertEquals(33, window.size());
+		assertEquals("o1", window.get(0).text);
+		assertEquals("l", window.get(32).toString());
+		assertEquals(33, updates.count);
+	}
+
+	@Test
+	public void failedPageCanBeLoadedAgain()
+	{
+		create(synced(range(0, 30)));
+		window.setPageLoader(loader);
+		window.onScrolled(0, 5);
+		runAll();
+
+		loader.olderConsumers.get(0).accept(null);
+		window.onScrolled(0, 5);
+		runAll();
+
+		assertEquals(2, loader.olderRequests.size());
+	}
+
+	@Test
+	public void emptyPageStopsLoadingOlder()
+	{
+		create(synced(range(0, 30)));
+		window.setPageLoader(loader);
+		window.onScrolled(0, 5);
+		runAll();
+
+		loader.olderConsumers.get(0).accept(List.of());
+		window.onScrolled(0, 5);
+		runAll();
+
+		assertEquals(1, loader.olderRequests.size());
+	}
+
+	@Test
+	public void trimDropsTheItemsBeforeTheVisibleOnes()
+	{
+		create(synced(range(0, 300)));
+
+		window.onScrolled(290, 299);
+		runAll();
+
+		assertEquals(200, window.size());
+		assertEquals("100", window.get(0).text);
+		assertEquals(100, updates.removed);
+		assertEquals(200, updates.count);
+	}
+
+	@Test
+	public void trimmedProvisionalMessagesComeBackAtTheEnd()
+	{
+		create(synced(range(0, 300)));
+		window.addLive(live("l1", "l2"));
+
+		window.onScrolled(0, 5);
+		runAll();
+		assertEquals(200, window.size());
+		assertEquals("199", window.get(199).text);
+		assertEquals(200, updates.count);
+
+		// The end isn't in the window, so live messages are kept aside
+		window.addLive(live("l3"));
+		assertEquals(200, window.size());
+
+		window.setPageLoader(loader);
+		window.onScrolled(190, 199);
+		runAll();
+		assertEquals(1, loader.newerRequests.size());
+		assertEquals("199", loader.newerRequests.get(0).text);
+
+		loader.newerConsumers.get(0).accept(synced(range(200, 300)));
+		runAll();
+		window.onScrolled(window.size() - 10, window.size() - 1);
+		runAll();
+		assertEquals(2, loader.newerRequests.size());
+
+		loader.newerConsumers.get(1).accept(List.of());
+		runAll();
+		var items = window.getItems();
+		assertEquals("299", items.get(items.size() - 4).toString());
+		assertEquals(List.of("l1?", "l2?", "l3?"), texts(items.subList(items.size() - 3, items.size())));
+		assertEquals(window.size(), updates.count);
+
+		window.addSynced(synced("l1", "l2", "l3"));
+		runAll();
+		items = window.getItems();
+		assertEquals(List.of("l1", "l2", "l3"), texts(items.subList(items.size() - 3, items.size())));
+		assertEquals(window.size(), updates.count);
+	}
+
+	@Test
+	public void trimDoesntSplitTheProvisionalMessages()
+	{
+		create(synced(range(0, 195)));
+		window.addLive(live(range(195, 205)));
+		window.setPageLoader(loader);
+
+		// Only 5 items are in excess, the 10 provisional ones would be split
+		window.onScrolled(0, 5);
+		runAll();
+		assertEquals(205, window.size());
+		assertEquals("204?", window.get(204).toString());
+
+		// The end is still in the window, so there's nothing newer to load
+		window.onScrolled(195, 204);
+		runAll();
+		assertTrue(loader.newerRequests.isEmpty());
+
+		window.addSynced(synced(range(195, 205)));
+		runAll();
+		assertEquals("195", window.get(window.size() - 10).toString());
+		assertEquals("204", window.get(window.size() - 1).toString());
+		assertEquals(window.size(), updates.count);
+	}
+
+	@Test
+	public void newerPageIsLoadedAfterTheLastSyncedMessage()
+	{
+		create(synced(range(0, 250)));
+		window.addLive(live("l1", "l2"));
+
+		window.onScrolled(0, 5);
+		runAll();
+		window.setPageLoader(loader);
+		window.onScrolled(190, 199);
+		runAll();
+
+		assertEquals(1, loader.newerRequests.size());
+		assertEquals("199", loader.newerRequests.get(0).toString());
+		assertTrue(window.getItems().stream().allMatch(message -> message.synced));
+	}
+
+	private void create(List<Message> items)
+	{
+		updates.count = items.size();
+		window = new BacklogWindow<>(updates, items, DIFF_CALLBACK, mainQueue::addLast, diffQueue::addLast);
+	}
+
+	private void runDiff()
+	{
+		while (!diffQueue.isEmpty())
+		{
+			diffQueue.pollFirst().run();
+		}
+	}
+
+	private void runAll()
+	{
+		while (!mainQueue.isEmpty() || !diffQueue.isEmpty())
+		{
+			runDiff();
+			while (!mainQueue.isEmpty())
+			{
+				mainQueue.pollFirst().run();
+			}
+		}
+	}
+
+	private void assertItems(String... expected)
+	{
+		assertEquals(Arrays.asList(expected), texts(window.getItems()));
+		assertEquals("adapter count", window.size(), updates.count);
+	}
+
+	private static List<String> texts(List<Message> messages)
+	{
+		return messages.stream()
+				.map(Message::toString)
+				.collect(Collectors.toList());
+	}
+
+	private static String[] range(int start, int end)
+	{
+		return IntStream.range(start, end)
+				.mapToObj(String::valueOf)
+				.toArray(String[]::new);
+	}
+
+	private static List<Message> synced(String... texts)
+	{
+		return Arrays.stream(texts)
+				.map(text -> new Message(text, true))
+				.collect(Collectors.toList());
+	}
+
+	private static List<Message> live(String... texts)
+	{
+		return Arrays.stream(texts)
+				.map(text -> new Message(text, false))
+				.collect(Collectors.toList());
+	}
+}
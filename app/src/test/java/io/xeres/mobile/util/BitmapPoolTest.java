@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2025 by David Gerber - https://zapek.com
+ *
+ * This file is part of Xeres-Android.
+ *
+ * Xeres-Android is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Xeres-Android is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Xeres-Android.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.xeres.mobile.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BitmapPoolTest
+{
+	private static final int[] BIG_SIZES = {
+			1 << 20,
+			(1 << 20) + 1,
+			1920 * 1080 * 4,
+			4000 * 3000 * 4,
+			Integer.MAX_VALUE / 2,
+			Integer.MAX_VALUE
+	};
+
+	@Test
+	public void floorClassIsNotAboveTheSize()
+	{
+		for (var byteCount = 4; byteCount < 1 << 16; byteCount++)
+		{
+			assertFloor(byteCount);
+		}
+		for (var byteCount : BIG_SIZES)
+		{
+			assertFloor(byteCount);
+		}
+	}
+
+	@Test
+	public void ceilingClassIsNotBelowTheSize()
+	{
+		for (var byteCount = 5; byteCount < 1 << 16; byteCount++)
+		{
+			assertCeiling(byteCount);
+		}
+		for (var byteCount : BIG_SIZES)
+		{
+			if (byteCount < Integer.MAX_VALUE)
+			{
+				assertCeiling(byteCount);
+			}
+		}
+	}
+
+	@Test
+	public void exactSizesKeepTheirClass()
+	{
+		for (var sizeClass = BitmapPool.getFloorClass(4); sizeClass < BitmapPool.getFloorClass(1 << 30); sizeClass++)
+		{
+			var classSize = (int) BitmapPool.getClassSize(sizeClass);
+			assertEquals(sizeClass, BitmapPool.getFloorClass(classSize));
+			assertEquals(sizeClass, BitmapPool.getCeilingClass(classSize));
+		}
+	}
+
+	@Test
+	public void classesGrowByAQuarterOfTheirPower()
+	{
+		assertEquals(1024L, BitmapPool.getClassSize(BitmapPool.getFloorClass(1024)));
+		assertEquals(1280L, BitmapPool.getClassSize(BitmapPool.getFloorClass(1024) + 1));
+		assertEquals(1536L, BitmapPool.getClassSize(BitmapPool.getFloorClass(1024) + 2));
+		assertEquals(1792L, BitmapPool.getClassSize(BitmapPool.getFloorClass(1024) + 3));
+		assertEquals(2048L, BitmapPool.getClassSize(BitmapPool.getFloorClass(1024) + 4));
+	}
+
+	@Test
+	public void tinySizesUseTheSmallestClass()
+	{
+		for (var byteCount = 1; byteCount <= 4; byteCount++)
+		{
+			assertEquals(BitmapPool.getFloorClass(4), BitmapPool.getCeilingClass(byteCount));
+		}
+	}
+
+	@Test
+	public void pooledBitmapIsAlwaysBigEnough()
+	{
+		// A bitmap is pooled in its floor class and looked up from the ceiling class of the request
+		for (var request = 5; request < 1 << 12; request++)
+		{
+			var ceiling = BitmapPool.getCeilingClass(request);
+			for (var pooled = request / 2; pooled < request * 2; pooled++)
+			{
+				var floor = BitmapPool.getFloorClass(pooled);
+				if (floor == ceiling || floor == ceiling + 1)
+				{
+					assertTrue(pooled + " for " + request, pooled >= request);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void wasteIsBounded()
+	{
+		// Taking a bitmap from the next class never wastes more than half of the requested size
+		for (var request = 16; request < 1 << 16; request++)
+		{
+			var nextClassSize = BitmapPool.getClassSize(BitmapPool.getCeilingClass(request) + 1);
+			assertTrue("waste for " + request, nextClassSize <= request * 3L / 2 + 1);
+		}
+	}
+
+	private static void assertFloor(int byteCount)
+	{
+		var sizeClass = BitmapPool.getFloorClass(byteCount);
+		assertTrue("floor of " + byteCount, BitmapPool.getClassSize(sizeClass) <= byteCount);
+		assertTrue("next of " + byteCount, BitmapPool.getClassSize(sizeClass + 1) > byteCount);
+	}
+
+	private static void assertCeiling(int byteCount)
+	{
+		var sizeClass = BitmapPool.getCeilingClass(byteCount);
+		assertTrue("ceiling of " + byteCount, BitmapPool.getClassSize(sizeClass) >= byteCount);
+		assertTrue("previous of " + byteCount, BitmapPool.getClassSize(sizeClass - 1) < byteCount);
+	}
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2025 by David Gerber - https://zapek.com
+ *
+ * This file is part of Xeres-Android.
+ *
+ * Xeres-Android is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Xeres-Android is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Xeres-Android.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.xeres.mobile.util;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LookupCacheTest
+{
+	private static final long TIME_TO_LIVE = 1000L;
+
+	private static class Load
+	{
+		private final long id;
+		private final Consumer<String> consumer;
+
+		private Load(long id, Consumer<String> consumer)
+		{
+			this.id = id;
+			this.consumer = consumer;
+		}
+	}
+
+	private final List<Load> loads = new ArrayList<>();
+	private long now;
+	private LookupCache<String> cache;
+
+	@Before
+	public void setUp()
+	{
+		loads.clear();
+		now = 10_000L;
+		cache = new LookupCache<>(TIME_TO_LIVE, (id, consumer) -> loads.add(new Load(id, consumer)), () -> now);
+	}
+
+	@Test
+	public void concurrentRequestsShareOneLoad()
+	{
+		var results = new ArrayList<String>();
+
+		cache.get(1L, results::add);
+		cache.get(1L, results::add);
+		assertEquals(1, loads.size());
+
+		loads.get(0).consumer.accept("one");
+		assertEquals(List.of("one", "one"), results);
+	}
+
+	@Test
+	public void differentIdsAreLoadedSeparately()
+	{
+		cache.get(1L, value -> {
+		});
+		cache.get(2L, value -> {
+		});
+		assertEquals(2, loads.size());
+		assertEquals(1L, loads.get(0).id);
+		assertEquals(2L, loads.get(1).id);
+	}
+
+	@Test
+	public void cachedValueIsUsedUntilItExpires()
+	{
+		var results = new ArrayList<String>();
+		cache.get(1L, results::add);
+		loads.get(0).consumer.accept("one");
+
+		now += TIME_TO_LIVE - 1;
+		cache.get(1L, results::add);
+		assertEquals(1, loads.size());
+		assertEquals(List.of("one", "one"), results);
+		assertEquals(1, cache.getHits());
+		assertEquals(1, cache.getMisses());
+
+		now += 1;
+		cache.get(1L, results::add);
+		assertEquals(2, loads.size());
+		assertEquals(2, cache.getMisses());
+	}
+
+	@Test
+	public void putValueIsUsed()
+	{
+		var results = new ArrayList<String>();
+		cache.put(1L, "one");
+		cache.get(1L, results::add);
+		assertTrue(loads.isEmpty());
+		assertEquals(List.of("one"), results);
+	}
+
+	@Test
+	public void invalidateOnlyForgetsThatId()
+	{
+		cache.put(1L, "one");
+		cache.put(2L, "two");
+
+		cache.invalidate(1L);
+
+		cache.get(1L, value -> {
+		});
+		cache.get(2L, value -> {
+		});
+		assertEquals(1, loads.size());
+		assertEquals(1L, loads.get(0).id);
+	}
+
+	@Test
+	public void invalidateAllForgetsEverything()
+	{
+		cache.put(1L, "one");
+		cache.put(2L, "two");
+
+		cache.invalidateAll();
+
+		cache.get(1L, value -> {
+		});
+		cache.get(2L, value -> {
+		});
+		assertEquals(2, loads.size());
+	}
+
+	@Test
+	public void valueLoadedDuringInvalidationIsNotCached()
+	{
+		var results = new ArrayList<String>();
+		cache.get(1L, results::add);
+
+		cache.invalidate(1L);
+		loads.get(0).consumer.accept("stale");
+		assertEquals(List.of("stale"), results);
+
+		cache.get(1L, results::add);
+		assertEquals(2, loads.size());
+	}
+
+	@Test
+	public void failedLoadIsRetried()
+	{
+		var results = new ArrayList<String>();
+		cache.get(1L, results::add);
+		loads.get(0).consumer.accept(null);
+		assertTrue(results.isEmpty());
+
+		cache.get(1L, results::add);
+		assertEquals(2, loads.size());
+		loads.get(1).consumer.accept("one");
+		assertEquals(List.of("one"), results);
+	}
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2025 by David Gerber - https://zapek.com
+ *
+ * This file is part of Xeres-Android.
+ *
+ * Xeres-Android is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Xeres-Android is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Xeres-Android.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.xeres.mobile.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class MessageSnifferTest
+{
+	private static final String DATA = "data:image/png;base64,iVBORw0KGgo=";
+
+	@Test
+	public void emptyIsPlain()
+	{
+		assertEquals(MessageSniffer.Kind.PLAIN, MessageSniffer.sniff("").getKind());
+	}
+
+	@Test
+	public void textIsPlain()
+	{
+		assertEquals(MessageSniffer.Kind.PLAIN, MessageSniffer.sniff("Hello there").getKind());
+	}
+
+	@Test
+	public void markupIsMarkdown()
+	{
+		assertEquals(MessageSniffer.Kind.MARKDOWN, MessageSniffer.sniff("Hello *there*").getKind());
+		assertEquals(MessageSniffer.Kind.MARKDOWN, MessageSniffer.sniff("see xeres.io").getKind());
+		assertEquals(MessageSniffer.Kind.MARKDOWN, MessageSniffer.sniff("- item").getKind());
+	}
+
+	@Test
+	public void leadingOrTrailingWhitespaceIsMarkdown()
+	{
+		assertEquals(MessageSniffer.Kind.MARKDOWN, MessageSniffer.sniff("    code").getKind());
+		assertEquals(MessageSniffer.Kind.MARKDOWN, MessageSniffer.sniff("Hello ").getKind());
+	}
+
+	@Test
+	public void tagsAndEntitiesAreHtml()
+	{
+		assertEquals(MessageSniffer.Kind.HTML, MessageSniffer.sniff("<b>Hello</b>").getKind());
+		assertEquals(MessageSniffer.Kind.HTML, MessageSniffer.sniff("Fish &amp; chips").getKind());
+	}
+
+	@Test
+	public void markdownImage()
+	{
+		var message = "![](" + DATA + ")";
+		var result = MessageSniffer.sniff(message);
+		assertImage(message, result);
+		assertEquals(0, result.getElementStart());
+		assertEquals(message.length(), result.getElementEnd());
+	}
+
+	@Test
+	public void markdownImageWithText()
+	{
+		var message = "Look: ![](" + DATA + ") nice";
+		var result = MessageSniffer.sniff(message);
+		assertImage(message, result);
+		assertEquals("Look: ", message.substring(0, result.getElementStart()));
+		assertEquals(" nice", message.substring(result.getElementEnd()));
+	}
+
+	@Test
+	public void markdownImageWithLeadingWhitespace()
+	{
+		var message = "  ![](" + DATA + ")";
+		var result = MessageSniffer.sniff(message);
+		assertImage(message, result);
+		assertEquals(2, result.getElementStart());
+	}
+
+	@Test
+	public void markdownImageWithoutClosingParenthesis()
+	{
+		var message = "![](" + DATA;
+		var result = MessageSniffer.sniff(message);
+		assertImage(message, result);
+		assertEquals(message.length(), result.getImageEnd());
+		assertEquals(message.length(), result.getElementEnd());
+	}
+
+	@Test
+	public void markdownImageWithoutData()
+	{
+		assertEquals(MessageSniffer.Kind.MARKDOWN, MessageSniffer.sniff("![](https://xeres.io/logo.png)").getKind());
+	}
+
+	@Test
+	public void imgTag()
+	{
+		var message = "<img src=\"" + DATA + "\"/>";
+		var result = MessageSniffer.sniff(message);
+		assertImage(message, result);
+		assertEquals(0, result.getElementStart());
+		assertEquals(message.length(), result.getElementEnd());
+	}
+
+	@Test
+	public void imgTagWithText()
+	{
+		var message = "Look: <IMG alt=\"a src=x\" src='" + DATA + "'> nice";
+		var result = MessageSniffer.sniff(message);
+		assertImage(message, result);
+		assertEquals("Look: ", message.substring(0, result.getElementStart()));
+		assertEquals(" nice", message.substring(result.getElementEnd()));
+	}
+
+	@Test
+	public void imgTagWithUnquotedSource()
+	{
+		var message = "<img src=" + DATA + " width=100>";
+		assertImage(message, MessageSniffer.sniff(message));
+	}
+
+	@Test
+	public void imgTagWithoutData()
+	{
+		assertEquals(MessageSniffer.Kind.HTML, MessageSniffer.sniff("<img src=\"https://xeres.io/logo.png\">").getKind());
+	}
+
+	@Test
+	public void imgTagWithUnclosedQuote()
+	{
+		assertEquals(MessageSniffer.Kind.HTML, MessageSniffer.sniff("<img src=\"" + DATA).getKind());
+	}
+
+	@Test
+	public void imageTagIsNotImg()
+	{
+		assertEquals(MessageSniffer.Kind.HTML, MessageSniffer.sniff("<image src=\"" + DATA + "\">").getKind());
+	}
+
+	private static void assertImage(String message, MessageSniffer.Result result)
+	{
+		assertEquals(MessageSniffer.Kind.INLINE_IMAGE, result.getKind());
+		assertEquals(DATA, message.substring(result.getImageStart(), result.getImageEnd()));
+	}
+}